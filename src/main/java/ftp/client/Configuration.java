@@ -2,10 +2,33 @@ package ftp.client;
 
 import ftp.client.DataSocket.MODE;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class Configuration {
     public static class ExecutorPoolConf{
+        /**
+         * @deprecated transfers no longer keep idle threads around. A value
+         * above {@link #maxPoolSize} raises the default concurrency to it,
+         * use {@link #maxPoolSize} or {@link #hostConcurrency} instead.
+         */
+        @Deprecated
         public static volatile int corePoolSize = 0;
+        /**
+         * Default max transfers running at the same time per server.
+         * Never more than the connections of its pool anyway.
+         */
         public static volatile int maxPoolSize = 15;
+        /**
+         * Max transfers running at the same time, keyed by "addr:port".
+         * Servers not listed use {@link #maxPoolSize}.
+         */
+        public static final Map<String, Integer> hostConcurrency = new ConcurrentHashMap<>();
+        /**
+         * Max transfers waiting to run per server. Queueing one more
+         * blocks the caller until a transfer finishes.
+         */
+        public static volatile int jobQueueCapacity = 10000;
         public static volatile long threadKeepAliveTime = 30000;//30s
     }
 
@@ -13,9 +36,32 @@ public class Configuration {
         public static volatile int defaultPoolSize = 10;
         public static volatile long directPollTimeOut = 5000;//1s
         public static volatile long pendingPollTimeOut = 30000;//30s
+        /**
+         * Max wait of a queued transfer for a busy connection to be given
+         * back before it fails. 0 waits as long as it takes.
+         */
+        public static volatile long sessionWaitTimeOut = 300000;//5min
         public static volatile long shrinkInterval = 20000;//20s
     }
 
+    public static class TimerServiceConf {
+        /**
+         * Resolution of the shared {@link TimerService}, fixed once
+         * it is started, as are the settings below.
+         */
+        public static volatile long tickDuration = 100;//100ms
+        public static volatile int wheelSize = 512;
+        /**
+         * Max timer tasks, e.g. keep-alive NOOPs, running at the same time.
+         */
+        public static volatile int workerThreadNum = 2;
+        /**
+         * How long closing a connection or pool waits for its running
+         * keep-alive or shrink task.
+         */
+        public static volatile long cancelTimeOut = 5000;//5s
+    }
+
     public static class ControlSocketConf {
         /**
          * Set keep alive interval for control socket. Typically, server
@@ -30,11 +76,119 @@ public class Configuration {
          * {@link FTPClient} from {@link FTPClientFactory}</p>
          */
         public static volatile long checkKeepAliveInterval = 30000;//30s
+        /**
+         * Keep sending NOOP during long transfers, so that NAT devices and
+         * firewalls don't drop the idle control connection meanwhile. The
+         * replies are told apart from the one ending the transfer. Disable
+         * for servers confused by commands during a transfer.
+         */
+        public static volatile boolean keepAliveDuringTransfer = true;
         public static volatile int serverSocketTimeOut = 5;//5s
+        /**
+         * Name remote files by absolute path in SIZE, MDTM, RETR, STOR
+         * and APPE, rather than CWD into their parent first. Disable
+         * for servers rejecting absolute paths in those commands.
+         */
+        public static volatile boolean absolutePathTransfer = true;
+        /**
+         * Max commands written ahead of their replies by
+         * {@link ControlSocket#executeAll(java.util.List)}, e.g. in bulk
+         * DELE, MKD or RNFR/RNTO. Set to 1 for servers mishandling
+         * pipelined commands.
+         */
+        public static volatile int pipelineDepth = 32;
+    }
+
+    public static class ControlChannelEngineConf {
+        /**
+         * Drive control connections by the shared non-blocking
+         * {@link ControlChannelEngine} rather than a blocking reader and
+         * writer each.
+         * <p><b>NOTE: </b>MUST be set before initializing
+         * {@link FTPClient} from {@link FTPClientFactory}</p>
+         */
+        public static volatile boolean enabled = false;
+        /**
+         * I/O threads of the shared engine, fixed once it is started.
+         */
+        public static volatile int ioThreadNum = 2;
+    }
+
+    public static class ListingCacheConf {
+        /**
+         * How long a directory listing is served from cache.
+         * Caching is disabled if not positive.
+         */
+        public static volatile long timeToLive = 30000;//30s
+        /**
+         * Max directory listings cached per server.
+         */
+        public static volatile int maxEntries = 1000;
+    }
+
+    public static class RemoteTreeCrawlerConf {
+        /**
+         * Max pooled connections listing directories of one tree.
+         */
+        public static volatile int parallelism = 4;
+        /**
+         * Max directories queued for any connection to list. Beyond
+         * that, each connection lists what it found on its own first.
+         */
+        public static volatile int frontierCapacity = 1024;
+    }
+
+    public static class RemoveDirectoryConf {
+        /**
+         * Max pooled connections deleting files and directories of one
+         * tree. The tree is removed on a single connection if less than 2.
+         */
+        public static volatile int parallelism = 4;
+    }
+
+    public static class DownloaderConf {
+        /**
+         * Max pooled connections fetching disjoint ranges of one file.
+         * Segmented download is disabled if less than 2.
+         */
+        public static volatile int segmentsPerFile = 4;
+        /**
+         * Files smaller than this are always fetched on a single connection.
+         */
+        public static volatile long segmentThreshold = 64 * 1024 * 1024;//64MB
+        /**
+         * Max pooled connections downloading files of one directory tree.
+         * Directories are downloaded on a single connection if less than 2.
+         */
+        public static volatile int directoryParallelism = 4;
+        /**
+         * Set last modified time of downloaded files to what the server
+         * listed, if known.
+         */
+        public static volatile boolean preserveModifiedTime = true;
+    }
+
+    public static class UploaderConf {
+        /**
+         * Max pooled connections uploading files of one directory tree.
+         * Directories are uploaded on a single connection if less than 2.
+         */
+        public static volatile int directoryParallelism = 4;
     }
 
     public static class DataSocketConf {
         public static volatile MODE mode = MODE.PASV;
+        /**
+         * Move file data between socket and disk with
+         * {@link java.nio.channels.FileChannel} transfers rather than
+         * copying it through heap buffers.
+         */
+        public static volatile boolean zeroCopy = true;
+        /**
+         * Max bytes moved per transfer call, which is also how often
+         * progress is reported and interruption is checked.
+         */
+        public static volatile long transferChunkSize = 8 * 1024 * 1024;//8MB
     }
 
 }
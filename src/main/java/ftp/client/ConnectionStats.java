@@ -0,0 +1,71 @@
+package ftp.client;
+
+/**
+ * Snapshot of a control connection's idle time and round-trip samples.
+ * Round trips are taken from commands without data connection, e.g.
+ * NOOP, CWD or SIZE, from writing the command to its full reply.
+ */
+public class ConnectionStats {
+    private final long idleMillis;
+    private final long lastRttMicros;
+    private final long smoothedRttMicros;
+    private final long rttSampleNum;
+    private final long keepAliveNum;
+    private final long transferKeepAliveNum;
+
+    ConnectionStats(long idleMillis, long lastRttMicros, long smoothedRttMicros, long rttSampleNum,
+                    long keepAliveNum, long transferKeepAliveNum) {
+        this.idleMillis = idleMillis;
+        this.lastRttMicros = lastRttMicros;
+        this.smoothedRttMicros = smoothedRttMicros;
+        this.rttSampleNum = rttSampleNum;
+        this.keepAliveNum = keepAliveNum;
+        this.transferKeepAliveNum = transferKeepAliveNum;
+    }
+
+    /**
+     * @return time since the last command, transfers not counted.
+     */
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * @return latest round trip, or -1 if none sampled yet.
+     */
+    public long getLastRttMicros() {
+        return lastRttMicros;
+    }
+
+    /**
+     * @return round trip averaged as TCP does (RFC 6298, gain 1/8), or -1 if none sampled yet.
+     */
+    public long getSmoothedRttMicros() {
+        return smoothedRttMicros;
+    }
+
+    public long getRttSampleNum() {
+        return rttSampleNum;
+    }
+
+    /**
+     * @return NOOPs sent by keep-alive, including those during transfers.
+     */
+    public long getKeepAliveNum() {
+        return keepAliveNum;
+    }
+
+    /**
+     * @return NOOPs sent by keep-alive while a transfer was in progress.
+     */
+    public long getTransferKeepAliveNum() {
+        return transferKeepAliveNum;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("idle %dms, rtt %.3fms (avg %.3fms over %d), keep-alive %d (%d during transfer)",
+                idleMillis, lastRttMicros / 1000.0, smoothedRttMicros / 1000.0, rttSampleNum,
+                keepAliveNum, transferKeepAliveNum);
+    }
+}
@@ -0,0 +1,151 @@
+package ftp.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking engine driving the control connections of the whole
+ * process, across pools and servers, by a small fixed number of I/O
+ * threads. Each thread owns a {@link Selector}; sessions are spread over
+ * them round-robin and stay on one thread for life.
+ * <p>Enabled for {@link ControlSocket} by
+ * {@link Configuration.ControlChannelEngineConf#enabled}; sessions may
+ * also be opened directly by {@link #connect(String, int)} to run many of
+ * them from few threads.</p>
+ */
+public class ControlChannelEngine implements StreamLogging {
+    private static volatile ControlChannelEngine defaultEngine;
+
+    private final IoThread[] ioThreads;
+    private final AtomicInteger nextIoThread = new AtomicInteger();
+
+    /**
+     * @param ioThreadNum number of I/O threads, at least 1.
+     * @throws IOException if a selector can't be opened.
+     */
+    public ControlChannelEngine(int ioThreadNum) throws IOException {
+        ioThreads = new IoThread[Math.max(1, ioThreadNum)];
+        for (int i = 0; i < ioThreads.length; i++) {
+            ioThreads[i] = new IoThread("ftp-control-io-" + i);
+            ioThreads[i].start();
+        }
+    }
+
+    /**
+     * @return engine shared by all {@link ControlSocket}s, started on first use with
+     * {@link Configuration.ControlChannelEngineConf#ioThreadNum} threads.
+     * @throws IOException if a selector can't be opened.
+     */
+    public static ControlChannelEngine getDefault() throws IOException {
+        if (defaultEngine == null) {
+            synchronized (ControlChannelEngine.class) {
+                if (defaultEngine == null)
+                    defaultEngine = new ControlChannelEngine(Configuration.ControlChannelEngineConf.ioThreadNum);
+            }
+        }
+        return defaultEngine;
+    }
+
+    /**
+     * Connect to control port of FTP server. The greeting is the first
+     * {@link ControlSession#nextReply()}.
+     *
+     * @param addr FTP server address.
+     * @param port FTP server control port.
+     * @return session on one of the I/O threads.
+     * @throws IOException .
+     */
+    public ControlSession connect(String addr, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(addr, port));
+        try {
+            // commands are tiny and each waits for its reply, Nagle only adds latency
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        IoThread ioThread = ioThreads[Math.floorMod(nextIoThread.getAndIncrement(), ioThreads.length)];
+        ControlSession session = new ControlSession(channel, ioThread);
+        ioThread.submit(() -> {
+            try {
+                session.register(channel.register(ioThread.selector, SelectionKey.OP_READ, session));
+            } catch (IOException e) {
+                session.fail(e);
+            }
+        });
+        return session;
+    }
+
+    /**
+     * Select loop of one I/O thread. Anything touching its selector's keys
+     * runs on it, submitted through {@link #submit(Runnable)}.
+     */
+    static class IoThread extends Thread {
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        /** shared by all sessions of this thread, replies are copied out by their parsers */
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+
+        IoThread(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void submit(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void wakeup() {
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    logger.severe(getName() + " stopped: " + e.getMessage());
+                    throw new UncheckedIOException(e);
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.warning(getName() + ": " + e);
+                    }
+                }
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    ControlSession session = (ControlSession) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable())
+                            session.onReadable(readBuffer);
+                        if (key.isValid() && key.isWritable())
+                            session.onWritable();
+                    } catch (IOException e) {
+                        logger.info("Control connection closed: " + e.getMessage());
+                        session.fail(e);
+                    } catch (CancelledKeyException ignored) {
+                        // closed by another thread meanwhile
+                    }
+                }
+            }
+        }
+    }
+}
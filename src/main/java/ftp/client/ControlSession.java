@@ -0,0 +1,197 @@
+package ftp.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One control connection driven by {@link ControlChannelEngine}. Commands
+ * are queued and written by the engine's I/O thread; replies are parsed
+ * there as they arrive and handed out in order through
+ * {@link #nextReply()}. Replies are matched to callers, not to commands,
+ * since a transfer command gets two of them (e.g. 150, then 226).
+ * <p>Futures are completed on the I/O thread, so stages chained onto
+ * them must not block.</p>
+ */
+public class ControlSession implements StreamLogging {
+    private final SocketChannel channel;
+    private final ControlChannelEngine.IoThread ioThread;
+    private final ReplyParser parser = new ReplyParser();
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile SelectionKey key;
+
+    // guarded by this
+    private final Deque<Reply> unclaimedReplies = new ArrayDeque<>();
+    private final Deque<CompletableFuture<Reply>> replyWaiters = new ArrayDeque<>();
+    private IOException failure;
+
+    ControlSession(SocketChannel channel, ControlChannelEngine.IoThread ioThread) {
+        this.channel = channel;
+        this.ioThread = ioThread;
+    }
+
+    /**
+     * Send {@code command} and get its reply. Commands opening a data
+     * connection get their final reply by a further {@link #nextReply()}.
+     *
+     * @param command FTP command.
+     * @return the reply, or failed if the connection is lost.
+     */
+    public synchronized CompletableFuture<Reply> execute(String command) {
+        write(command);
+        flush();
+        return nextReply();
+    }
+
+    /**
+     * Queue {@code command} without sending it yet, see {@link #flush()}.
+     *
+     * @param command FTP command.
+     */
+    public void write(String command) {
+        outbound.add(ByteBuffer.wrap((command + "\r\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Send commands queued by {@link #write(String)}.
+     */
+    public void flush() {
+        if (flushScheduled.compareAndSet(false, true))
+            ioThread.submit(() -> {
+                if (key != null && key.isValid())
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            });
+    }
+
+    /**
+     * @return the earliest reply nobody has asked for yet, which may
+     * not have arrived yet.
+     */
+    public synchronized CompletableFuture<Reply> nextReply() {
+        if (!unclaimedReplies.isEmpty())
+            return CompletableFuture.completedFuture(unclaimedReplies.poll());
+        if (failure != null)
+            return CompletableFuture.failedFuture(failure);
+        CompletableFuture<Reply> ret = new CompletableFuture<>();
+        replyWaiters.add(ret);
+        return ret;
+    }
+
+    /**
+     * Block for {@code reply}, for callers without an event loop. Not
+     * interruptible, as blocking socket reads aren't either: a reply
+     * given up on would be taken by its waiter all the same, and every
+     * later reply would go to the wrong caller. The interrupt status is
+     * set again on return.
+     *
+     * @param reply from {@link #execute(String)} or {@link #nextReply()}.
+     * @return the reply.
+     * @throws IOException if the connection is lost.
+     */
+    public static Reply await(CompletableFuture<Reply> reply) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return reply.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    public Socket socket() {
+        return channel.socket();
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            fail(new ClosedChannelException());
+            ioThread.wakeup();
+        }
+    }
+
+    /* I/O thread only */
+
+    void register(SelectionKey key) {
+        this.key = key;
+    }
+
+    void onReadable(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        if (channel.read(readBuffer) < 0)
+            throw new EOFException("Control connection closed by server");
+        readBuffer.flip();
+        parser.feed(readBuffer, this::onReply);
+    }
+
+    void onWritable() throws IOException {
+        ByteBuffer head;
+        while ((head = outbound.peek()) != null) {
+            channel.write(head);
+            if (head.hasRemaining())
+                return; // socket buffer full, OP_WRITE stays on
+            outbound.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        flushScheduled.set(false);
+        // flushed by another thread between the last poll and the reset above
+        if (!outbound.isEmpty() && flushScheduled.compareAndSet(false, true))
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void onReply(Reply reply) {
+        CompletableFuture<Reply> waiter;
+        synchronized (this) {
+            waiter = replyWaiters.poll();
+            if (waiter == null)
+                unclaimedReplies.add(reply);
+        }
+        if (waiter != null)
+            waiter.complete(reply);
+    }
+
+    void fail(IOException e) {
+        Deque<CompletableFuture<Reply>> waiters;
+        synchronized (this) {
+            if (failure != null)
+                return;
+            failure = e;
+            waiters = new ArrayDeque<>(replyWaiters);
+            replyWaiters.clear();
+        }
+        if (key != null)
+            key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        for (CompletableFuture<Reply> waiter : waiters)
+            waiter.completeExceptionally(e);
+    }
+}
@@ -1,84 +1,208 @@
 package ftp.client;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.Calendar;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 
 /**
  * Control Socket for FTP Client. Support multi-threading.
  */
 public class ControlSocket implements StreamLogging {
     private final Socket controlSocket;
-    private BufferedReader reader;
+    private InputStream reader;
+    /** bytes read from {@link #reader} but not parsed yet, reused for every reply */
+    private byte[] readBuffer;
+    private int readPosition;
+    private int readLimit;
+    private final ReplyParser replyParser = new ReplyParser();
     private BufferedWriter writer;
-    private int statusCode;
-    private String message;
+    /** replaces {@link #reader} and {@link #writer} if driven by {@link ControlChannelEngine} */
+    private final ControlSession session;
+    private volatile int statusCode;
+    /** decoded on demand by {@link #getMessage()}, from {@link #replyParser} or {@link #sessionReply} */
+    private volatile String message;
+    private Reply sessionReply;
     private String remoteAddr;
 
-    private final ScheduledThreadPoolExecutor threadPool =
-            (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1);
-    private volatile long lastExecution = Calendar.getInstance().getTimeInMillis();
+    /**
+     * held by every command until its reply is read, and while a transfer
+     * is being ended; keep-alive only tries it, see {@link #keepAlive()}
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** signalled by {@link #parseAfterTransfer(String)} */
+    private final Condition transferDone = lock.newCondition();
+    private final TimerService.Timeout keepAlive;
+    /** idle tracking, written by every command and read by keep-alive without locking */
+    private volatile long lastExecution = System.currentTimeMillis();
 
-    private DataSocket dataSocket;
+    // round trips of commands without data socket, written with the lock held
+    private volatile long lastRttMicros = -1;
+    private volatile long smoothedRttMicros = -1;
+    private volatile long rttSampleNum;
+    private volatile long keepAliveNum;
+    private volatile long transferKeepAliveNum;
+    /** NOOPs sent during the pending transfer whose replies are not read yet */
+    private int pendingNoopNum;
+    /** NOOPs sent while idle whose replies are not read yet, all before any other reply */
+    private int idleNoopNum;
+
+    private volatile DataSocket dataSocket;
     private ServerSocket activeSocket;
+    private volatile ServerFeatures serverFeatures;
 
     /**
      * Connect to control port of FTP server. Note that {@link #reader}
-     * and {@link #writer} are initialized as well.
+     * and {@link #writer} are initialized as well, unless
+     * {@link Configuration.ControlChannelEngineConf#enabled} is set, in
+     * which case the connection is a {@link ControlSession} instead.
      *
      * @param addr FTP server ip address.
      * @param port FTP server control port.
      * @throws IOException .
      */
     public ControlSocket(String addr, int port) throws IOException {
-        controlSocket = new Socket(addr, port);
+        if (Configuration.ControlChannelEngineConf.enabled) {
+            session = ControlChannelEngine.getDefault().connect(addr, port);
+            controlSocket = session.socket();
+        } else {
+            session = null;
+            controlSocket = new Socket(addr, port);
+            // commands are tiny and each waits for its reply, Nagle only adds latency
+            controlSocket.setTcpNoDelay(true);
+            reader = controlSocket.getInputStream();
+            readBuffer = new byte[8192];
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    controlSocket.getOutputStream(), StandardCharsets.UTF_8));
+        }
         logger.severe("Please ensure your FTP server NOT set NO_TRANSFER_TIMEOUT, otherwise control " +
                 "connection will be closed automatically by server and this client would crash!");
-        logger.severe("Known NOT supported FTP server: vsFTPd (lack FTP command MLSD)");
         logger.info("Known supported FTP server: FileZilla Server. You can download it from " +
                 "https://filezilla-project.org/download.php?type=server");
-        reader = new BufferedReader(new InputStreamReader(
-                controlSocket.getInputStream(), StandardCharsets.UTF_8));
-        writer = new BufferedWriter(new OutputStreamWriter(
-                controlSocket.getOutputStream(), StandardCharsets.UTF_8));
+        logger.info("Servers lacking MLSD, e.g. vsFTPd, are listed with LIST instead");
         parseResponse("CONN");
         remoteAddr = addr;
-        threadPool.scheduleWithFixedDelay(() -> {
-                    if (Calendar.getInstance().getTimeInMillis() - lastExecution
-                            > Configuration.ControlSocketConf.sendKeepAliveInterval) {
-                        logger.info("Sending keep-alive");
-                        try {
-                            execute("NOOP");
-                        } catch (IOException e) {
-                            logger.severe(e.getMessage());
-                        }
-                    }
-                }, Configuration.ControlSocketConf.checkKeepAliveInterval,
-                Configuration.ControlSocketConf.checkKeepAliveInterval, TimeUnit.MILLISECONDS);
+        keepAlive = TimerService.getDefault().scheduleWithFixedDelay(this::keepAlive,
+                Configuration.ControlSocketConf.checkKeepAliveInterval,
+                Configuration.ControlSocketConf.checkKeepAliveInterval);
+    }
+
+    /**
+     * Run by the shared {@link TimerService}. NOOP is written without
+     * waiting for its reply, which the next command reads and drops, so a
+     * half-open connection never holds up the shared timer workers. While
+     * a transfer is pending, NOOP is sent as well if
+     * {@link Configuration.ControlSocketConf#keepAliveDuringTransfer} is
+     * set, or skipped otherwise, as it could only be sent after the transfer.
+     * The check and the send are done with the lock held, so that no
+     * transfer starts in between and leaves NOOP waiting for its end. The
+     * lock is only tried: a command holding it, maybe blocked on a slow
+     * or half-open connection, must not hold up a timer worker, and keeps
+     * the connection alive by itself anyway.
+     */
+    private void keepAlive() {
+        if (System.currentTimeMillis() - lastExecution <= Configuration.ControlSocketConf.sendKeepAliveInterval
+                || !lock.tryLock())
+            return;
+        try {
+            if (dataSocket == null) {
+                writeCommand("NOOP");
+                flushCommands();
+                idleNoopNum++;
+                lastExecution = System.currentTimeMillis();
+                keepAliveNum++;
+                if (logger.isLoggable(Level.INFO))
+                    logger.info("Keep-alive: " + getStats());
+            } else if (Configuration.ControlSocketConf.keepAliveDuringTransfer) {
+                keepAliveDuringTransfer();
+            }
+        } catch (IOException e) {
+            logger.severe(e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Send NOOP while the transfer is going on; its reply is skipped by
+     * {@link #parseAfterTransfer(String)}, whether it comes before or after
+     * the reply ending the transfer. Called with the lock held.
+     */
+    private void keepAliveDuringTransfer() throws IOException {
+        writeCommand("NOOP");
+        flushCommands();
+        pendingNoopNum++;
+        lastExecution = System.currentTimeMillis();
+        keepAliveNum++;
+        transferKeepAliveNum++;
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Keep-alive during transfer: " + getStats());
+    }
+
+    /**
+     * @return idle time and round trips of this connection.
+     */
+    public ConnectionStats getStats() {
+        return new ConnectionStats(System.currentTimeMillis() - lastExecution, lastRttMicros,
+                smoothedRttMicros, rttSampleNum, keepAliveNum, transferKeepAliveNum);
+    }
+
+    /** with the lock held */
+    private void sampleRtt(long sentNanos) {
+        long rtt = (System.nanoTime() - sentNanos) / 1000;
+        lastRttMicros = rtt;
+        smoothedRttMicros = smoothedRttMicros < 0 ? rtt : smoothedRttMicros + (rtt - smoothedRttMicros) / 8;
+        rttSampleNum++;
+    }
+
+    /**
+     * Features negotiated with the server, see {@link ServerFeatures}.
+     *
+     * @return features, or {@code null} if not negotiated yet.
+     */
+    public ServerFeatures getServerFeatures() {
+        return serverFeatures;
+    }
+
+    void setServerFeatures(ServerFeatures serverFeatures) {
+        this.serverFeatures = serverFeatures;
     }
 
     private DataSocket getDataSocket() throws IOException {
         if (Configuration.DataSocketConf.mode == DataSocket.MODE.PASV) {
+            if (serverFeatures != null && serverFeatures.supportsEPSV()) {
+                // "229 Entering Extended Passive Mode (|||port|)", same host as control connection
+                execute("EPSV");
+                if (statusCode == 229) {
+                    int port = Integer.parseInt(getMessage().split("\\|")[3]);
+                    return new DataSocket(SocketChannel.open(new InetSocketAddress(remoteAddr, port)).socket());
+                }
+            }
             execute("PASV");
             if (statusCode != 227) return null;
             String[] ret = getMessage().split("[(|)]")[1].split(",");
             int p1 = Integer.parseInt(ret[4]);
             int p2 = Integer.parseInt(ret[5]);
             int port = p1 * 256 + p2;
-            Socket dataSocket = new Socket(remoteAddr, port);
-            return new DataSocket(dataSocket);
+            // opened through a channel so that DataSocket can do zero-copy transfers
+            SocketChannel dataChannel = SocketChannel.open(new InetSocketAddress(remoteAddr, port));
+            return new DataSocket(dataChannel.socket());
         } else {
             int port;
+            activeSocket = ServerSocketChannel.open().socket();
             if (Configuration.DataSocketConf.mode == DataSocket.MODE.PORT_STRICT) {
                 port = controlSocket.getLocalPort() + 1;
-                activeSocket = new ServerSocket(port);
+                activeSocket.bind(new InetSocketAddress(port));
             } else {
-                activeSocket = new ServerSocket(0);
+                activeSocket.bind(new InetSocketAddress(0));
                 port = activeSocket.getLocalPort();
             }
             int p1 = port / 256;
@@ -130,16 +254,67 @@ public class ControlSocket implements StreamLogging {
      * @return {@link DataSocket} for data transfer
      * @throws IOException .
      */
-    public synchronized DataSocket execute(String command, int validStatusCode)
+    public DataSocket execute(String command, int validStatusCode)
+            throws IOException {
+        return execute(command, validStatusCode, null);
+    }
+
+    /**
+     * Same as {@link #execute(String, int)}, except that
+     * {@code preSimpleCommand} is sent right before {@code command},
+     * after the data socket has been negotiated.
+     * <p>added for zjz's downloader: REST must be executed right before
+     * RETR, not PASV in between</p>
+     *
+     * @param command          FTP command which needs data socket
+     * @param validStatusCode  see {@link #execute(String, int)}
+     * @param preSimpleCommand FTP command without data socket, or {@code null}
+     * @return {@link DataSocket} for data transfer, or {@code null} if
+     * either command is rejected. If {@code preSimpleCommand} is, e.g.
+     * REST, {@code command} is not sent and {@link #getStatusCode()}
+     * tells the rejection.
+     * @throws IOException .
+     */
+    public DataSocket execute(String command, int validStatusCode, String preSimpleCommand)
+            throws IOException {
+        lock.lock();
+        try {
+            return executeLocked(command, validStatusCode, preSimpleCommand);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private DataSocket executeLocked(String command, int validStatusCode, String preSimpleCommand)
             throws IOException {
         waitForDataSocketClosure();
-        lastExecution = Calendar.getInstance().getTimeInMillis();
+        lastExecution = System.currentTimeMillis();
         if (validStatusCode > 0)
             dataSocket = getDataSocket();
-        writer.write(command);
-        writer.write("\r\n");
-        writer.flush();
+
+        if (preSimpleCommand != null) {
+            writeCommand(preSimpleCommand);
+            flushCommands();
+            parseResponse(preSimpleCommand);
+            if (statusCode / 100 != 2 && statusCode / 100 != 3) {
+                // e.g. RETR after a rejected REST would send the file from its beginning
+                if (dataSocket != null) {
+                    dataSocket.close();
+                    dataSocket = null;
+                } else if (activeSocket != null) {
+                    activeSocket.close();
+                }
+                logger.warning(preSimpleCommand + " rejected, not sending " + command.split(" ")[0]);
+                return null;
+            }
+        }
+
+        writeCommand(command);
+        flushCommands();
+        long sentNanos = System.nanoTime();
         parseResponse(command);
+        if (validStatusCode <= 0)
+            sampleRtt(sentNanos);
         if (validStatusCode > 0) {
             if (Configuration.DataSocketConf.mode == DataSocket.MODE.PASV) {
                 if (validStatusCode != statusCode && dataSocket != null) {
@@ -147,15 +322,15 @@ public class ControlSocket implements StreamLogging {
                     dataSocket.close();
                     dataSocket = null;
                     logger.warning("Failed to create data socket");
-                }else{
+                } else if (dataSocket != null) {
                     // pasv mode succeed
-                    new Thread(() -> parseAfterTransfer(command)).start();
+                    dataSocket.setCloseListener(() -> parseAfterTransfer(command));
                     logger.info("Data socket created");
                 }
             } else if (validStatusCode == statusCode) {
                 // port mode succeed
                 dataSocket = waitUilAccept();
-                new Thread(() -> parseAfterTransfer(command)).start();
+                dataSocket.setCloseListener(() -> parseAfterTransfer(command));
                 logger.info("Data socket created");
             } else {
                 // port mode failed
@@ -166,122 +341,182 @@ public class ControlSocket implements StreamLogging {
         return dataSocket;
     }
 
-    private void parseAfterTransfer(String command) {
-        while (true) {
-            synchronized (this) {
-                if (this.dataSocket.isClosed()) {
-                    try {
-                        logger.info(Configuration.DataSocketConf.mode + " data socket closed");
-                        parseResponse(command);
-                    } catch (IOException e) {
-                        logger.severe(e.getMessage());
-                    } finally {
-                        this.dataSocket = null;
-                    }
-                    break;
+    /**
+     * Send FTP commands which don't need data socket back to back, without
+     * waiting for each reply, then read their replies in order. At most
+     * {@link Configuration.ControlSocketConf#pipelineDepth} commands are in
+     * flight at once, so that the server never stalls writing replies
+     * nobody reads yet. Afterwards {@link #getStatusCode()} and
+     * {@link #getMessage()} refer to the last command.
+     *
+     * @param commands FTP commands which don't need data socket
+     * @return status code of each command, in the same order
+     * @throws IOException .
+     */
+    public int[] executeAll(List<String> commands) throws IOException {
+        lock.lock();
+        try {
+            waitForDataSocketClosure();
+            lastExecution = System.currentTimeMillis();
+            int depth = Math.max(1, Configuration.ControlSocketConf.pipelineDepth);
+            int[] ret = new int[commands.size()];
+            int sentNum = 0;
+            for (int i = 0; i < ret.length; i++) {
+                if (sentNum < ret.length && sentNum - i < depth) {
+                    while (sentNum < ret.length && sentNum - i < depth)
+                        writeCommand(commands.get(sentNum++));
+                    flushCommands();
                 }
+                parseResponse(commands.get(i));
+                ret[i] = statusCode;
             }
+            return ret;
+        } finally {
+            lock.unlock();
         }
     }
 
-    private void checkDataSocketState() {
-        while (true)
-            synchronized (this) {
-                if (dataSocket == null)
-                    break;
-                else if (!dataSocket.isClosed())
-                    break;
+    /**
+     * Invoked by {@link DataSocket#close()} on the closing thread. Reads the
+     * reply that ends the transfer (typically 226) and wakes up commands
+     * blocked in {@link #waitForDataSocketClosure()}. Replies to NOOPs sent
+     * by keep-alive meanwhile are read and dropped; some servers answer
+     * them at once, others only after the transfer.
+     *
+     * @param command FTP command which opened the data socket.
+     */
+    private void parseAfterTransfer(String command) {
+        lock.lock();
+        try {
+            logger.info(Configuration.DataSocketConf.mode + " data socket closed");
+            parseResponse(command);
+            // a transfer never ends with 200, so that is a NOOP answered early
+            for (; pendingNoopNum > 0 && statusCode == 200; pendingNoopNum--)
+                parseResponse(command);
+            if (pendingNoopNum > 0) {
+                int transferStatusCode = statusCode;
+                String transferMessage = getMessage();
+                for (; pendingNoopNum > 0; pendingNoopNum--)
+                    parseResponse("NOOP");
+                statusCode = transferStatusCode;
+                message = transferMessage;
             }
+        } catch (IOException e) {
+            logger.severe(e.getMessage());
+        } finally {
+            pendingNoopNum = 0;
+            dataSocket = null;
+            transferDone.signalAll();
+            lock.unlock();
+        }
     }
 
-    private void waitForDataSocketClosure() {
-        while (true)
-            synchronized (this) {
-                if (dataSocket == null) break;
+    /**
+     * Block until the pending transfer, if any, is completed. Must be
+     * called with the lock held; waiting releases it so that
+     * {@link #parseAfterTransfer(String)} can get in.
+     *
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    private void waitForDataSocketClosure() throws InterruptedIOException {
+        while (dataSocket != null) {
+            try {
+                transferDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data transfer");
             }
+        }
+    }
+
+    private void writeCommand(String command) throws IOException {
+        if (session != null) {
+            session.write(command);
+        } else {
+            writer.write(command);
+            writer.write("\r\n");
+        }
+    }
+
+    private void flushCommands() throws IOException {
+        if (session != null)
+            session.flush();
+        else
+            writer.flush();
     }
 
     /**
-     * Parse response far control socket.
+     * Parse response far control socket. Only the status code is
+     * extracted; the text is left to {@link #getMessage()}.
      *
      * @param command FTP command.
      * @throws IOException .
      */
     private void parseResponse(String command) throws IOException {
-        StringBuilder messageBuilder = new StringBuilder();
-        String ret = reader.readLine();
-        logger.info(String.format("[%-4s] %s", command.split(" ")[0], ret));
-        messageBuilder.append(ret).append('\n');
-        statusCode = Integer.parseInt(ret.substring(0, 3));
-        if (ret.charAt(3) == '-')
+        // replies to NOOPs sent by keep-alive while idle come before any other
+        for (; idleNoopNum > 0; idleNoopNum--)
+            readReply("NOOP");
+        readReply(command);
+    }
+
+    private void readReply(String command) throws IOException {
+        if (session != null) {
+            sessionReply = ControlSession.await(session.nextReply());
+            statusCode = sessionReply.getStatusCode();
+        } else {
             do {
-                ret = reader.readLine();
-                logger.info(String.format("[%-4s] %s", command.split(" ")[0], ret));
-                messageBuilder.append(ret).append('\n');
-            } while (!ret.startsWith(statusCode + " "));
-        message = messageBuilder.toString();
+                if (readPosition == readLimit) {
+                    readPosition = 0;
+                    readLimit = Math.max(0, reader.read(readBuffer));
+                    if (readLimit == 0)
+                        throw new EOFException("Control connection closed by server");
+                }
+                readPosition += replyParser.feed(readBuffer, readPosition, readLimit - readPosition);
+            } while (!replyParser.isComplete());
+            statusCode = replyParser.getStatusCode();
+        }
+        message = null;
+        if (logger.isLoggable(Level.INFO)) {
+            int verbEnd = command.indexOf(' ');
+            String verb = verbEnd < 0 ? command : command.substring(0, verbEnd);
+            for (String line : getMessage().split("\n"))
+                logger.info(String.format("[%-4s] %s", verb, line));
+        }
     }
 
     public int getStatusCode() {
-        checkDataSocketState();
         return statusCode;
     }
 
+    /**
+     * @return full text of the last reply, decoded on first call after it.
+     */
     public String getMessage() {
-        checkDataSocketState();
-        return message;
+        String ret = message;
+        if (ret == null) {
+            lock.lock();
+            try {
+                if (message == null)
+                    message = session != null ? sessionReply.getMessage() : replyParser.getMessage();
+                ret = message;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return ret;
     }
 
     void close() throws IOException {
-        threadPool.shutdownNow();
-        logger.info("Waiting for the death of keep-alive thread");
-        while (!threadPool.isTerminated()) ;
-        logger.info("Keep-alive thread died gracefully");
-        controlSocket.close();
-    }
-
-    // added for zjz's downloader: REST must be executed right before RETR, not PASV in between
-    public synchronized DataSocket execute(String command, int validStatusCode, String preSimpleCommand)
-            throws IOException {
-        waitForDataSocketClosure();
-        lastExecution = Calendar.getInstance().getTimeInMillis();
-        if (validStatusCode > 0)
-            dataSocket = getDataSocket();
-
-        if (preSimpleCommand != null) {
-            writer.write(preSimpleCommand);
-            writer.write("\r\n");
-            writer.flush();
-            parseResponse(preSimpleCommand);
-        }
-
-        writer.write(command);
-        writer.write("\r\n");
-        writer.flush();
-        parseResponse(command);
-        if (validStatusCode > 0) {
-            if (Configuration.DataSocketConf.mode == DataSocket.MODE.PASV) {
-                if (validStatusCode != statusCode && dataSocket != null) {
-                    // pasv mode failed
-                    dataSocket.close();
-                    dataSocket = null;
-                    logger.warning("Failed to create data socket");
-                } else {
-                    // pasv mode succeed
-                    new Thread(() -> parseAfterTransfer(command)).start();
-                    logger.info("Data socket created");
-                }
-            } else if (validStatusCode == statusCode) {
-                // port mode succeed
-                dataSocket = waitUilAccept();
-                new Thread(() -> parseAfterTransfer(command)).start();
-                logger.info("Data socket created");
-            } else {
-                // port mode failed
-                activeSocket.close();
-                logger.warning("Failed to create data socket");
-            }
+        try {
+            if (!keepAlive.cancel(Configuration.TimerServiceConf.cancelTimeOut, TimeUnit.MILLISECONDS))
+                logger.warning("Keep-alive still running, closing anyway");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Interrupted while waiting for keep-alive, closing anyway");
         }
-        return dataSocket;
+        if (session != null)
+            session.close();
+        else
+            controlSocket.close();
     }
-}
\ No newline at end of file
+}
@@ -2,15 +2,25 @@ package ftp.client;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 /**
  * Data Socket for FTP Client.
  */
 public class DataSocket implements StreamLogging, AutoCloseable {
     private final Socket dataSocket;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile Runnable closeListener;
 
     /**
      * Mode determine how data socket are created. <P>Originally
@@ -31,6 +41,16 @@ public class DataSocket implements StreamLogging, AutoCloseable {
         this.dataSocket = dataSocket;
     }
 
+    /**
+     * Register callback run exactly once by {@link #close()}. Used by
+     * {@link ControlSocket} to read the reply ending the transfer.
+     *
+     * @param closeListener callback on closure.
+     */
+    void setCloseListener(Runnable closeListener) {
+        this.closeListener = closeListener;
+    }
+
     /**
      * Get text (UTF-8) out of data socket. {@link #dataSocket}
      * will be closed after calling this method. This method
@@ -41,17 +61,99 @@ public class DataSocket implements StreamLogging, AutoCloseable {
      */
     public String[] getTextResponse() throws IOException {
         List<String> ret = new ArrayList<>();
+        forEachLine(ret::add);
+        return ret.toArray(new String[0]);
+    }
+
+    /**
+     * Get text (UTF-8) out of data socket line by line, handing each line
+     * to {@code consumer} as soon as it arrives, so that no more than one
+     * line is held at a time. {@link #dataSocket} will be closed after
+     * calling this method, even if {@code consumer} throws.
+     *
+     * @param consumer Called with every line, without line terminator.
+     * @throws IOException thrown if {@link #dataSocket} failed.
+     */
+    public void forEachLine(Consumer<String> consumer) throws IOException {
         try (BufferedReader in = new BufferedReader(new InputStreamReader(
                 dataSocket.getInputStream(), StandardCharsets.UTF_8))) {
             String response;
             while ((response = in.readLine()) != null)
-                ret.add(response);
+                consumer.accept(response);
+        } finally {
+            close();
         }
-        return ret.toArray(new String[0]);
     }
 
+    /**
+     * Receive binary data into {@code file} with
+     * {@link FileChannel#transferFrom}, so that no heap buffer is involved.
+     * Transfer stops at end of stream, at {@code limit}, or when current
+     * thread is interrupted, whichever comes first. {@link #dataSocket}
+     * is <b>NOT</b> closed by this method.
+     *
+     * @param file     Destination file channel.
+     * @param position File position to write the first byte, e.g. REST offset.
+     * @param limit    File position to stop at, {@link Long#MAX_VALUE} if none.
+     * @param progress Called with current file position after each chunk,
+     *                 may be {@code null}.
+     * @return File position after the last byte written.
+     * @throws IOException thrown if {@link #dataSocket} or {@code file} failed.
+     * @see Configuration.DataSocketConf#transferChunkSize
+     */
+    public long receiveTo(FileChannel file, long position, long limit, LongConsumer progress)
+            throws IOException {
+        ReadableByteChannel source = getChannel() != null
+                ? getChannel() : Channels.newChannel(dataSocket.getInputStream());
+        long transferred;
+        while (position < limit && !Thread.currentThread().isInterrupted()
+                && (transferred = file.transferFrom(source, position, Math.min(
+                Configuration.DataSocketConf.transferChunkSize, limit - position))) > 0) {
+            position += transferred;
+            if (progress != null)
+                progress.accept(position);
+        }
+        return position;
+    }
+
+    /**
+     * Send {@code file} from {@code position} to its end with
+     * {@link FileChannel#transferTo}, which lets the kernel move the bytes
+     * (sendfile) where supported. Transfer stops early when current thread
+     * is interrupted. {@link #dataSocket} is <b>NOT</b> closed by this method.
+     *
+     * @param file     Source file channel.
+     * @param position File position of the first byte to send, e.g. the
+     *                 size already on server before APPE.
+     * @param progress Called with current file position after each chunk,
+     *                 may be {@code null}.
+     * @return File position after the last byte sent.
+     * @throws IOException thrown if {@link #dataSocket} or {@code file} failed.
+     * @see Configuration.DataSocketConf#transferChunkSize
+     */
+    public long sendFrom(FileChannel file, long position, LongConsumer progress)
+            throws IOException {
+        WritableByteChannel target = getChannel() != null
+                ? getChannel() : Channels.newChannel(dataSocket.getOutputStream());
+        long size = file.size();
+        while (position < size && !Thread.currentThread().isInterrupted()) {
+            position += file.transferTo(position, Math.min(
+                    Configuration.DataSocketConf.transferChunkSize, size - position), target);
+            if (progress != null)
+                progress.accept(position);
+        }
+        return position;
+    }
+
+    /**
+     * Whether {@link #close()} has been called. Note that the underlying
+     * Socket may be closed earlier by closing its streams, which does
+     * not count, since the control side is not notified that way.
+     *
+     * @return {@code true} if closed.
+     */
     public boolean isClosed() {
-        return dataSocket.isClosed();
+        return closed.get();
     }
 
     /**
@@ -63,9 +165,34 @@ public class DataSocket implements StreamLogging, AutoCloseable {
         return dataSocket;
     }
 
+    /**
+     * Get underlying channel, which is available as long as the data
+     * socket is created by {@link ControlSocket}.
+     *
+     * @return underlying SocketChannel, or {@code null} if none.
+     */
+    public SocketChannel getChannel() {
+        return dataSocket.getChannel();
+    }
+
+    /**
+     * Close underlying socket and notify {@link ControlSocket}, which
+     * reads the transfer result before this method returns. Calling it
+     * more than once has no effect.
+     *
+     * @throws IOException .
+     */
     @Override
     public void close() throws IOException {
-        dataSocket.close();
+        if (!closed.compareAndSet(false, true))
+            return;
+        try {
+            dataSocket.close();
+        } finally {
+            Runnable listener = closeListener;
+            if (listener != null)
+                listener.run();
+        }
     }
 }
 
@@ -1,6 +1,11 @@
 package ftp.client;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * FTP client interface for modern FTP servers. Implementations
@@ -12,6 +17,23 @@ public interface FTPClient {
 
     String getMessage();
 
+    /**
+     * @return idle time and round trips of this client's control connection.
+     */
+    ConnectionStats getConnectionStats();
+
+    /**
+     * @return {@link #getConnectionStats()} of every pooled connection,
+     * empty unless the client is multi-threaded.
+     */
+    List<ConnectionStats> getPooledConnectionStats();
+
+    /**
+     * @return hits and misses of the listing cache, which all
+     * connections to the same server share.
+     */
+    ListingCacheStats getListingCacheStats();
+
     void help() throws IOException;
 
     Boolean login(String user, String pass) throws IOException;
@@ -24,6 +46,12 @@ public interface FTPClient {
 
     FTPPath[] list(String dir) throws IOException;
 
+    Boolean list(String dir, Consumer<FTPPath> consumer) throws IOException;
+
+    RemoteTreeCrawler.Summary summarizeTree(String dir) throws IOException;
+
+    FTPPath stat(String path) throws IOException;
+
     Boolean changeWorkingDirectory(String dir) throws IOException;
 
     String getWorkingDirectory() throws IOException;
@@ -36,15 +64,38 @@ public interface FTPClient {
 
     Boolean makeDirectory(String path) throws IOException;
 
+    /**
+     * Pipelined {@link #deleteFile(String)} of many files.
+     *
+     * @return whether each path is deleted, in the given order.
+     */
+    Map<String, Boolean> deleteFiles(Collection<String> paths) throws IOException;
+
+    /**
+     * Pipelined {@link #makeDirectory(String)} of many directories.
+     * Parents must come before their children.
+     *
+     * @return whether each path is created, in the given order.
+     */
+    Map<String, Boolean> makeDirectories(Collection<String> paths) throws IOException;
+
+    /**
+     * Pipelined {@link #rename(String, String)} of many paths.
+     *
+     * @param oldToNewNames old name -> new name
+     * @return whether each old name is renamed, in the given order.
+     */
+    Map<String, Boolean> renameAll(Map<String, String> oldToNewNames) throws IOException;
+
     @NeedSpareThread
-    void downloadFile(String remotePath, String localPath, StatusPublisher publisher) throws Throwable;
+    Future<Void> downloadFile(String remotePath, String localPath, StatusPublisher publisher) throws Throwable;
 
     @NeedSpareThread
-    void downloadDirectory(String remotePath, String localPath, StatusPublisher publisher) throws Throwable;
+    Future<Void> downloadDirectory(String remotePath, String localPath, StatusPublisher publisher) throws Throwable;
 
     @NeedSpareThread
-    void uploadFile(String localPath, String remotePath, StatusPublisher publisher) throws Throwable;
+    Future<Void> uploadFile(String localPath, String remotePath, StatusPublisher publisher) throws Throwable;
 
     @NeedSpareThread
-    void uploadDirectory(String localPath, String remotePath, StatusPublisher publisher) throws Throwable;
+    Future<Void> uploadDirectory(String localPath, String remotePath, StatusPublisher publisher) throws Throwable;
 }
\ No newline at end of file
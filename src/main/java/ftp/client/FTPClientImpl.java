@@ -4,13 +4,34 @@ import ftp.downloader.DirSeparator;
 import ftp.downloader.DirSeparatorModes;
 import ftp.downloader.DownloadException;
 import ftp.downloader.Downloader;
+import ftp.downloader.ParallelDirectoryDownloader;
+import ftp.downloader.SegmentedDownloader;
+import ftp.uploader.ParallelDirectoryUploader;
 import ftp.uploader.UpLoader;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * FTP client implementation for modern FTP servers. Implementations
@@ -26,7 +47,13 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
     @SuppressWarnings("FieldCanBeLocal")
     private String password;
     private String remoteDir = "/";
+    private boolean remoteDirKnown;
+    private boolean mlstSupported;
+    private boolean loggedIn;
     private ControlSocket controlSocket;
+    private FTPConnectionPool connectionPool;
+    private ListingCache listingCache;
+    private ServerFeatures serverFeatures;
 
     /**
      * Connect to FTP server. Invoking this method directly is
@@ -38,10 +65,82 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
      */
     private FTPClientImpl(String addr, int port) throws IOException {
         controlSocket = new ControlSocket(addr, port);
+        listingCache = ListingCache.forServer(addr, port);
+        serverFeatures = ServerFeatures.forServer(addr, port, controlSocket);
+        controlSocket.setServerFeatures(serverFeatures);
+        mlstSupported = serverFeatures.supportsMLST();
+        if (serverFeatures.supportsUTF8())
+            controlSocket.execute("OPTS UTF8 ON");
     }
 
     private FTPClientImpl() {}
 
+    void setConnectionPool(FTPConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Run {@code task} on this connection and on up to {@code parallelism - 1}
+     * more connections borrowed from {@link FTPConnectionPool}, then wait for
+     * all of them. Connections are borrowed only if idle or creatable, so
+     * fewer workers may take part, and none without a pool (e.g.
+     * {@link SimpleFTPClientHandler}). Tasks should therefore drain shared
+     * work instead of assuming a fixed number of workers.
+     *
+     * @param parallelism max connections to work on, including this one.
+     * @param task        work for each connection.
+     * @throws IOException the first failure of any task, with the others
+     *                     suppressed, or {@link java.io.InterruptedIOException}
+     *                     if interrupted while waiting, in which case other
+     *                     workers are interrupted too.
+     */
+    public void runOnPooledConnections(int parallelism, PooledConnectionTask task)
+            throws IOException {
+        List<Future<Void>> workers = new ArrayList<>();
+        for (int i = 1; i < parallelism && connectionPool != null; i++) {
+            FTPClient borrowed = connectionPool.tryTakeOrGenerate();
+            if (borrowed == null)
+                break;
+            workers.add(connectionPool.submit(() -> {
+                try {
+                    if (!((FTPClientImpl) borrowed).isLoggedInAs(username, password)
+                            && !borrowed.login(username, password))
+                        throw new IOException("Failed to login pooled connection");
+                    task.run(((FTPClientImpl) borrowed).controlSocket, borrowed);
+                } finally {
+                    connectionPool.giveBack(borrowed);
+                }
+                return null;
+            }));
+        }
+        logger.info(String.format("Working on %d connection(s)", workers.size() + 1));
+
+        List<Throwable> failures = new ArrayList<>();
+        try {
+            task.run(controlSocket, this);
+        } catch (Exception e) {
+            failures.add(e);
+        }
+        for (Future<Void> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                failures.add(e.getCause());
+            } catch (InterruptedException e) {
+                workers.forEach(w -> w.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for pooled connections");
+            }
+        }
+        if (failures.isEmpty())
+            return;
+        Throwable first = failures.get(0);
+        IOException ret = first instanceof IOException
+                ? (IOException) first : new IOException(first.toString(), first);
+        failures.stream().skip(1).forEach(ret::addSuppressed);
+        throw ret;
+    }
+
     /**
      * Login for ftp client. For anonymous login, try
      * <pre>{@code
@@ -58,7 +157,30 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
         controlSocket.execute("PASS " + pass);
         username = user;
         password = pass;
-        return controlSocket.getStatusCode() == 230;
+        // server decides where a session starts
+        remoteDirKnown = false;
+        return loggedIn = controlSocket.getStatusCode() == 230;
+    }
+
+    /**
+     * Whether this connection has already been granted access with
+     * exactly these credentials, so that login can be skipped.
+     *
+     * @param user username for ftp account
+     * @param pass password for ftp account
+     * @return {@code true} if logged in as {@code user}.
+     */
+    boolean isLoggedInAs(String user, String pass) {
+        return loggedIn && Objects.equals(username, user) && Objects.equals(password, pass);
+    }
+
+    /**
+     * Working directory tracked on the client side, without asking the server.
+     *
+     * @return tracked working directory, or {@code null} if unknown.
+     */
+    String getTrackedWorkingDirectory() {
+        return remoteDirKnown ? remoteDir : null;
     }
 
     /**
@@ -77,6 +199,21 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
         return true;
     }
 
+    @Override
+    public ConnectionStats getConnectionStats() {
+        return controlSocket.getStats();
+    }
+
+    @Override
+    public List<ConnectionStats> getPooledConnectionStats() {
+        return connectionPool == null ? Collections.emptyList() : connectionPool.getConnectionStats();
+    }
+
+    @Override
+    public ListingCacheStats getListingCacheStats() {
+        return listingCache.getStats();
+    }
+
     @Override
     public int getStatusCode() {
         return controlSocket.getStatusCode();
@@ -106,7 +243,7 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
     }
 
     /**
-     * Current directory listing with LIST and MLSD.
+     * Current directory listing, see {@link #list(String)}.
      *
      * @return Array of {@link FTPPath}, or {@code null}
      * if the server side happen to not support MLSD.
@@ -116,12 +253,13 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
      */
     @Override
     public FTPPath[] list() throws IOException {
-        return list(remoteDir);
+        return list(toAbsolutePath("."));
     }
 
     /**
-     * Directory listing with LIST and MLSD. Note that some
-     * ancient FTP server may not support MLSD, so good luck.
+     * Directory listing with MLSD. LIST is only sent when some entries
+     * lack permission facts, or instead of MLSD if the server lacks it
+     * according to {@link ServerFeatures}, e.g. vsFTPd.
      *
      * @param dir Remote directory.
      * @return Array of {@link FTPPath}, or {@code null}
@@ -131,42 +269,237 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
      */
     @Override
     public FTPPath[] list(String dir) throws IOException {
+        String absoluteDir = toAbsolutePath(dir);
+        FTPPath[] paths = listingCache.get(absoluteDir);
+        if (paths != null)
+            return paths;
+        if (!serverFeatures.supportsMLST()) {
+            String[] res = rawList(dir);
+            if (res == null)
+                return null;
+            paths = FTPPath.parseFromLIST(absoluteDir, res);
+            listingCache.put(absoluteDir, paths);
+            return paths;
+        }
         DataSocket dataSocket =
                 controlSocket.execute("MLSD " + dir, 150);
         if (dataSocket == null)
             return null;
-        FTPPath[] paths = FTPPath.parseFromMLSD(
-                dir, dataSocket.getTextResponse());
+        paths = FTPPath.parseFromMLSD(
+                absoluteDir, dataSocket.getTextResponse());
         if (controlSocket.getStatusCode() != 226)
             return null;
-        String[] res = rawList(dir);
-        if (res == null)
-            return null;
-        for (int i = 0; i < res.length; i++)
-            paths[i].addPermission(res[i]);
+        for (FTPPath path : paths) {
+            if (!path.hasPermission()) {
+                // server lacks "perm" and "UNIX.mode" facts, which LIST has
+                String[] res = rawList(dir);
+                if (res == null)
+                    return null;
+                FTPPath.addPermissions(paths, res);
+                break;
+            }
+        }
+        listingCache.put(absoluteDir, paths);
         return paths;
     }
 
+    /**
+     * Streaming directory listing with MLSD, or LIST if the server lacks
+     * MLSD. Every entry is parsed and
+     * handed to {@code consumer} while the listing is still arriving, so
+     * neither the response nor an array of entries is ever held, which
+     * suits directories too large for {@link #list(String)}. Permissions
+     * are not completed with LIST, see {@link FTPPath#hasPermission()}.
+     * A cached listing is replayed, but a streamed one is not cached.
+     * <p>{@code consumer} runs while the data connection is still open,
+     * so it must <b>NOT</b> send commands through this client.</p>
+     *
+     * @param dir      Remote directory.
+     * @param consumer Called with every entry in order of arrival.
+     * @return whether the whole listing was received.
+     * @throws IOException .
+     * @see FTPPath#parseFromMLSD(String, String)
+     */
+    @Override
+    public Boolean list(String dir, Consumer<FTPPath> consumer) throws IOException {
+        String absoluteDir = toAbsolutePath(dir);
+        FTPPath[] cached = listingCache.get(absoluteDir);
+        if (cached != null) {
+            for (FTPPath path : cached)
+                consumer.accept(path);
+            return true;
+        }
+        boolean mlsd = serverFeatures.supportsMLST();
+        DataSocket dataSocket =
+                controlSocket.execute((mlsd ? "MLSD " : "LIST ") + dir, 150);
+        if (dataSocket == null)
+            return false;
+        dataSocket.forEachLine(line -> {
+            FTPPath path = mlsd ? FTPPath.parseFromMLSD(absoluteDir, line)
+                    : FTPPath.parseFromLIST(absoluteDir, line);
+            if (path != null)
+                consumer.accept(path);
+        });
+        return controlSocket.getStatusCode() / 100 == 2;
+    }
+
+    /**
+     * Look up a single remote path on the control connection only,
+     * so that no data connection is opened. MLST is used if the server
+     * supports it, otherwise SIZE and MDTM, which only find files. If
+     * even SIZE is missing, the parent directory is listed instead.
+     *
+     * @param path Remote file or directory.
+     * @return the path with its size and modification time if known,
+     * or {@code null} if it doesn't exist.
+     * @throws IOException .
+     */
+    @Override
+    public FTPPath stat(String path) throws IOException {
+        String absolutePath = toAbsolutePath(path);
+        int nameStart = absolutePath.lastIndexOf('/') + 1;
+        String dir = nameStart == 1 ? "/" : absolutePath.substring(0, nameStart - 1);
+        String name = absolutePath.substring(nameStart);
+        if (mlstSupported) {
+            controlSocket.execute("MLST " + absolutePath);
+            int statusCode = controlSocket.getStatusCode();
+            if (statusCode == 250) {
+                // 250-Listing path\n facts; path\n250 End
+                String[] lines = controlSocket.getMessage().split("\n");
+                String facts = lines.length > 2 ? lines[1].trim() : "";
+                int factsEnd = facts.indexOf(' ');
+                FTPPath ret = factsEnd < 0 ? null
+                        : FTPPath.parseFromMLSD(dir, facts.substring(0, factsEnd + 1) + name);
+                // some servers call the path itself "cdir"
+                return ret != null ? ret : new FTPPath(dir, name);
+            }
+            if (statusCode != 500 && statusCode != 502)
+                return null;
+            logger.info("MLST not supported, falling back to SIZE and MDTM");
+            mlstSupported = false;
+        }
+        if (!serverFeatures.supportsSIZE()) {
+            FTPPath[] paths = list(dir);
+            for (int i = 0; paths != null && i < paths.length; i++) {
+                if (paths[i].getName().equals(name))
+                    return paths[i];
+            }
+            return null;
+        }
+        controlSocket.execute("SIZE " + absolutePath);
+        if (controlSocket.getStatusCode() != 213)
+            return null;
+        StringBuilder facts = new StringBuilder("type=file;size=")
+                .append(controlSocket.getMessage().substring(4).trim()).append(';');
+        if (serverFeatures.supportsMDTM())
+            controlSocket.execute("MDTM " + absolutePath);
+        if (serverFeatures.supportsMDTM() && controlSocket.getStatusCode() == 213)
+            facts.append("modify=").append(controlSocket.getMessage().substring(4).trim()).append(';');
+        return FTPPath.parseFromMLSD(dir, facts.append(' ').append(name).toString());
+    }
+
+    /**
+     * Count files, directories and bytes below {@code dir}, listing
+     * it in parallel over pooled connections if any.
+     *
+     * @param dir Remote directory.
+     * @return totals of the tree, and how long the crawl took.
+     * @throws IOException .
+     * @see RemoteTreeCrawler
+     */
+    @Override
+    public RemoteTreeCrawler.Summary summarizeTree(String dir) throws IOException {
+        return new RemoteTreeCrawler(this).summarize(dir);
+    }
+
+    /**
+     * Resolve {@code path} against the tracked working directory, which
+     * is only asked for with PWD if unknown.
+     *
+     * @param path absolute or relative remote path.
+     * @return normalized absolute path, see {@link #normalizePath(String)}.
+     * @throws IOException .
+     */
+    private String toAbsolutePath(String path) throws IOException {
+        if (path.startsWith("/"))
+            return normalizePath(path);
+        String workingDirectory = getWorkingDirectory();
+        return resolvePath(workingDirectory == null ? remoteDir : workingDirectory, path);
+    }
+
+    /**
+     * @param dir  absolute remote directory.
+     * @param path absolute path, or path relative to {@code dir}.
+     * @return normalized absolute path, see {@link #normalizePath(String)}.
+     */
+    static String resolvePath(String dir, String path) {
+        return normalizePath(path.startsWith("/") ? path : dir + "/" + path);
+    }
+
+    /**
+     * Resolve "." and ".." and drop empty names, e.g. "/a//b/../c/"
+     * becomes "/a/c". ".." of the root is the root itself.
+     *
+     * @param path absolute remote path.
+     * @return absolute path without trailing slash, unless it is the root.
+     */
+    static String normalizePath(String path) {
+        Deque<String> names = new ArrayDeque<>();
+        for (String name : path.split("/")) {
+            if (name.equals(".."))
+                names.pollLast();
+            else if (!name.isEmpty() && !name.equals("."))
+                names.addLast(name);
+        }
+        return "/" + String.join("/", names);
+    }
+
     /**
      * Change current directory. Syntax like "..",
      * relative path and absolute path are supported as well.
+     * Paths are resolved on the client side, so that CWD is skipped
+     * if already there and PWD is only sent if CWD failed or its
+     * target is ambiguous, e.g. "~".
      *
      * @param dir Remote directory.
      * @return {@code false} if directory not found else {@code true}
      */
     @Override
     public Boolean changeWorkingDirectory(String dir) throws IOException {
-        controlSocket.execute("CWD " + dir);
+        String target = dir.startsWith("~") || (!remoteDirKnown && !dir.startsWith("/"))
+                ? null : toAbsolutePath(dir);
+        if (target != null && remoteDirKnown && target.equals(remoteDir))
+            return true;
+        controlSocket.execute("CWD " + (target == null ? dir : target));
         boolean ret = controlSocket.getStatusCode() == 250;
-        return getWorkingDirectory() == null ? null : ret;
+        if (ret && target != null) {
+            remoteDir = target;
+            remoteDirKnown = true;
+            return true;
+        }
+        remoteDirKnown = false;
+        // where CWD led, or that it failed; if even PWD fails, the next command asks again
+        getWorkingDirectory();
+        return ret;
     }
 
+    /**
+     * Current directory, as tracked on the client side. PWD is only
+     * sent if it is unknown, e.g. right after login.
+     *
+     * @return absolute remote directory, or {@code null} if PWD failed.
+     * @throws IOException .
+     */
     @Override
     public String getWorkingDirectory() throws IOException {
+        if (remoteDirKnown)
+            return remoteDir;
         controlSocket.execute("PWD");
-        return controlSocket.getStatusCode() == 257
-                ? (remoteDir = controlSocket.getMessage().split("\"")[1])
-                : null;
+        if (controlSocket.getStatusCode() != 257)
+            return null;
+        remoteDir = controlSocket.getMessage().split("\"")[1];
+        remoteDirKnown = true;
+        return remoteDir;
     }
 
     /**
@@ -183,6 +516,8 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
         if (controlSocket.getStatusCode() != 350)
             return false;
         controlSocket.execute("RNTO " + newName);
+        listingCache.invalidate(toAbsolutePath(oldName));
+        listingCache.invalidate(toAbsolutePath(newName));
         return controlSocket.getStatusCode() == 250;
     }
 
@@ -190,56 +525,173 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
     public Boolean deleteFile(String path) throws IOException {
         logger.info("Deleting " + path);
         controlSocket.execute("DELE " + path);
+        listingCache.invalidate(toAbsolutePath(path));
         return controlSocket.getStatusCode() == 250;
     }
 
     /**
-     * Remove directory recursively.
+     * Remove {@code path} with everything inside. The tree is crawled
+     * first, then its files are deleted and its directories removed
+     * bottom-up, one depth at a time so that each is empty by its RMD,
+     * both over up to {@link Configuration.RemoveDirectoryConf#parallelism}
+     * pooled connections. Failures are logged once as a summary.
      *
-     * @param path directory path.
-     * @return whether successful
+     * @param path Remote directory.
+     * @return whether {@code path} itself is removed.
      * @throws IOException .
+     * @see RemoteTreeCrawler
      */
     @Override
     public Boolean removeDirectory(String path) throws IOException {
-        FTPPath[] paths = list(path);
-        if (paths == null) return false;
-        if (paths.length != 0) {
-            for (FTPPath ftpPath : paths) {
-                String absolutePath = ftpPath.getPath();
-                if (ftpPath.isDirectory()
-                        ? !removeDirectory(absolutePath)
-                        : !deleteFile(absolutePath))
-                    logger.warning("Failed to delete " + absolutePath);
+        String absolutePath = toAbsolutePath(path);
+        Queue<String> files = new ConcurrentLinkedQueue<>();
+        Map<Integer, Queue<String>> dirsByDepth = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+        RemoteTreeCrawler.Summary summary = new RemoteTreeCrawler(this).crawl(absolutePath, ftpPath -> {
+            if (ftpPath.isDirectory()) {
+                int depth = (int) ftpPath.getPath().chars().filter(c -> c == '/').count();
+                dirsByDepth.computeIfAbsent(depth, k -> new ConcurrentLinkedQueue<>()).add(ftpPath.getPath());
+            } else {
+                files.add(ftpPath.getPath());
             }
+        });
+        logger.info(String.format("Removing %s: %d file(s), %d directory(s)",
+                absolutePath, summary.getFileNum(), summary.getDirectoryNum()));
+
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        try {
+            removeAll("DELE", files, failures);
+            for (Queue<String> dirs : dirsByDepth.values())
+                removeAll("RMD", dirs, failures);
+            controlSocket.execute("RMD " + path);
+        } finally {
+            listingCache.invalidate(absolutePath);
         }
-        controlSocket.execute("RMD " + path);
-        return controlSocket.getStatusCode() == 250;
+        boolean ret = controlSocket.getStatusCode() == 250;
+        if (summary.getFailedDirectoryNum() > 0) {
+            logger.warning(String.format("Failed to list %d directory(s) below %s",
+                    summary.getFailedDirectoryNum(), absolutePath));
+        }
+        if (!failures.isEmpty()) {
+            logger.warning(String.format("Failed to remove %d path(s) below %s, e.g. %s", failures.size(),
+                    absolutePath, failures.subList(0, Math.min(failures.size(), 5))));
+        }
+        return ret;
+    }
+
+    /**
+     * send {@code command} for each of {@code paths} over pooled connections, collecting failures.
+     * Each connection takes a batch of up to {@link Configuration.ControlSocketConf#pipelineDepth}
+     * paths at a time and pipelines it.
+     */
+    private void removeAll(String command, Queue<String> paths, List<String> failures) throws IOException {
+        if (paths.isEmpty())
+            return;
+        runOnPooledConnections(Configuration.RemoveDirectoryConf.parallelism, (workerControlSocket, workerClient) -> {
+            int batchSize = Math.max(1, Configuration.ControlSocketConf.pipelineDepth);
+            List<String> commands = new ArrayList<>(batchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                commands.clear();
+                String path;
+                while (commands.size() < batchSize && (path = paths.poll()) != null)
+                    commands.add(command + " " + path);
+                if (commands.isEmpty())
+                    break;
+                int[] statusCodes = workerControlSocket.executeAll(commands);
+                for (int i = 0; i < statusCodes.length; i++) {
+                    if (statusCodes[i] != 250)
+                        failures.add(commands.get(i) + ": " + statusCodes[i]);
+                }
+            }
+        });
     }
 
     @Override
     public Boolean makeDirectory(String path) throws IOException {
         controlSocket.execute("MKD " + path);
+        listingCache.invalidate(toAbsolutePath(path));
         return controlSocket.getStatusCode() == 257;
     }
 
     @Override
-    public void downloadFile(String remotePath, String localPath, StatusPublisher publisher)
+    public Map<String, Boolean> deleteFiles(Collection<String> paths) throws IOException {
+        logger.info("Deleting " + paths.size() + " file(s)");
+        return executeAll("DELE", paths, 250);
+    }
+
+    @Override
+    public Map<String, Boolean> makeDirectories(Collection<String> paths) throws IOException {
+        return executeAll("MKD", paths, 257);
+    }
+
+    @Override
+    public Map<String, Boolean> renameAll(Map<String, String> oldToNewNames) throws IOException {
+        List<String> commands = new ArrayList<>(oldToNewNames.size() * 2);
+        for (Map.Entry<String, String> entry : oldToNewNames.entrySet()) {
+            // RNTO is refused with 503 if its RNFR failed, so the pair may go out together
+            commands.add("RNFR " + entry.getKey());
+            commands.add("RNTO " + entry.getValue());
+        }
+        int[] statusCodes;
+        try {
+            statusCodes = controlSocket.executeAll(commands);
+        } finally {
+            for (Map.Entry<String, String> entry : oldToNewNames.entrySet()) {
+                listingCache.invalidate(toAbsolutePath(entry.getKey()));
+                listingCache.invalidate(toAbsolutePath(entry.getValue()));
+            }
+        }
+        Map<String, Boolean> ret = new LinkedHashMap<>();
+        int i = 0;
+        for (String oldName : oldToNewNames.keySet()) {
+            ret.put(oldName, statusCodes[i] == 350 && statusCodes[i + 1] == 250);
+            i += 2;
+        }
+        return ret;
+    }
+
+    /** pipeline {@code command} for each of {@code paths}, invalidating their listings */
+    private Map<String, Boolean> executeAll(String command, Collection<String> paths, int validStatusCode)
+            throws IOException {
+        List<String> commands = new ArrayList<>(paths.size());
+        for (String path : paths)
+            commands.add(command + " " + path);
+        int[] statusCodes;
+        try {
+            statusCodes = controlSocket.executeAll(commands);
+        } finally {
+            for (String path : paths)
+                listingCache.invalidate(toAbsolutePath(path));
+        }
+        Map<String, Boolean> ret = new LinkedHashMap<>();
+        int i = 0;
+        for (String path : paths)
+            ret.put(path, statusCodes[i++] == validStatusCode);
+        return ret;
+    }
+
+    @Override
+    public Future<Void> downloadFile(String remotePath, String localPath, StatusPublisher publisher)
             throws IOException, DownloadException {
         String ftpDir = Downloader.parseDirFromString(remotePath, new DirSeparator(DirSeparatorModes.FTP));
         String ftpName = Downloader.parseNameFromString(remotePath, new DirSeparator(DirSeparatorModes.FTP));
-        FTPPath remoteFTPPath = new FTPPath(ftpDir, ftpName, 1);
+        // size unknown until SIZE
+        FTPPath remoteFTPPath = new FTPPath(ftpDir, ftpName, -1);
 
         logger.info("-------StartDownloading-------");
 
-        Downloader downloader = new Downloader(controlSocket, this, publisher);
-        downloader.downloadFileOrDirectory(remoteFTPPath, localPath);
+        if (connectionPool != null && Configuration.DownloaderConf.segmentsPerFile > 1) {
+            new SegmentedDownloader(controlSocket, this, publisher).downloadFile(remoteFTPPath, localPath);
+        } else {
+            Downloader downloader = new Downloader(controlSocket, this, publisher);
+            downloader.downloadFileOrDirectory(remoteFTPPath, localPath);
+        }
 
         logger.info("-------SuccessfullyDownloaded-------");
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
-    public void downloadDirectory(String remotePath, String localPath, StatusPublisher publisher)
+    public Future<Void> downloadDirectory(String remotePath, String localPath, StatusPublisher publisher)
             throws IOException, DownloadException {
         String ftpDir = Downloader.parseDirFromString(remotePath, new DirSeparator(DirSeparatorModes.FTP));
         String ftpName = Downloader.parseNameFromString(remotePath, new DirSeparator(DirSeparatorModes.FTP));
@@ -247,14 +699,20 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
 
         logger.info("-------StartDownloading-------");
 
-        Downloader downloader = new Downloader(controlSocket, this, publisher);
-        downloader.downloadFileOrDirectory(remoteFTPPath, localPath);
+        if (connectionPool != null && Configuration.DownloaderConf.directoryParallelism > 1) {
+            new ParallelDirectoryDownloader(controlSocket, this, publisher)
+                    .downloadDirectory(remoteFTPPath, localPath);
+        } else {
+            Downloader downloader = new Downloader(controlSocket, this, publisher);
+            downloader.downloadFileOrDirectory(remoteFTPPath, localPath);
+        }
 
         logger.info("-------SuccessfullyDownloaded-------");
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
-    public void uploadFile(String localPath, String remotePath, StatusPublisher publisher)
+    public Future<Void> uploadFile(String localPath, String remotePath, StatusPublisher publisher)
             throws IOException, SQLException {
         UpLoader uploader = new UpLoader(this, controlSocket, publisher);
         Path local_path = Paths.get(localPath);
@@ -263,17 +721,27 @@ public class FTPClientImpl implements FTPClient, StreamLogging {
         serverFileName = serverFileName.substring(serverFileName.lastIndexOf("/") + 1);
         FTPPath server_path = new FTPPath(remotePath.substring(0, remotePath.lastIndexOf("/")), "");
         uploader.UpLoadFile(local_path, server_path, serverFileName);
+        listingCache.invalidate(toAbsolutePath(remotePath));
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
-    public void uploadDirectory(String localPath, String remotePath, StatusPublisher publisher)
+    public Future<Void> uploadDirectory(String localPath, String remotePath, StatusPublisher publisher)
             throws IOException, SQLException {
-        UpLoader uploader = new UpLoader(this, controlSocket, publisher);
         Path local_path = Paths.get(localPath);
         String serverDirectoryName = remotePath.trim();
         serverDirectoryName = serverDirectoryName.substring(serverDirectoryName.lastIndexOf("/") + 1);
         FTPPath server_path = new FTPPath(remotePath.substring(0, remotePath.lastIndexOf("/")), "");
-        uploader.UpLoadDirectory(local_path, server_path, serverDirectoryName);
+        if (connectionPool != null && Configuration.UploaderConf.directoryParallelism > 1
+                && local_path.toFile().isDirectory()) {
+            new ParallelDirectoryUploader(this, publisher)
+                    .UpLoadDirectory(local_path, server_path, serverDirectoryName);
+        } else {
+            UpLoader uploader = new UpLoader(this, controlSocket, publisher);
+            uploader.UpLoadDirectory(local_path, server_path, serverDirectoryName);
+        }
+        listingCache.invalidate(toAbsolutePath(remotePath));
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
@@ -1,8 +1,10 @@
 package ftp.client;
 
 import java.io.IOException;
-import java.util.Objects;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class FTPConnectionPool extends LinkedBlockingQueue<FTPClient>
@@ -10,32 +12,35 @@ public class FTPConnectionPool extends LinkedBlockingQueue<FTPClient>
     private final int capacity;
     private final AtomicInteger count = new AtomicInteger(0);
     private final AtomicInteger initialized = new AtomicInteger(0);
-    private final ScheduledThreadPoolExecutor threadPool =
-            (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1);
+    // every connection generated and not quit yet, idle or taken
+    private final Set<FTPClientImpl> connections = ConcurrentHashMap.newKeySet();
+    private final TimerService.Timeout shrink;
+    // threads driving connections borrowed by FTPClientImpl#runOnPooledConnections
+    private final ExecutorService workerPool = Executors.newCachedThreadPool();
 
     public FTPConnectionPool(int capacity) {
         super(capacity);
         this.capacity = capacity;
-        threadPool.scheduleWithFixedDelay(() -> {
-                    while (initialized.get() > 1 && 2 * size() > initialized.get()) {
-                        try {
-                            Objects.requireNonNull(poll(
-                                    Configuration.FTPConnectionPoolConf.directPollTimeOut,
-                                    TimeUnit.MILLISECONDS)).quit();
-                            initialized.getAndDecrement();
-                            logger.info(String.format("Shrinking ftp client pool: %d/%d",
-                                    initialized.get(), capacity));
-                        } catch (NullPointerException ignored) {
-                        } catch (InterruptedException e) {
-                            logger.warning(e.getMessage());
-                            break;
-                        } catch (IOException e) {
-                            logger.warning(e.getCause().getMessage());
-                        }
+        // runs on the shared timer, so only idle connections are taken and QUIT is left to workerPool
+        shrink = TimerService.getDefault().scheduleWithFixedDelay(() -> {
+                    FTPClient idle;
+                    while (initialized.get() > 1 && 2 * size() > initialized.get() && (idle = poll()) != null) {
+                        initialized.getAndDecrement();
+                        logger.info(String.format("Shrinking ftp client pool: %d/%d",
+                                initialized.get(), capacity));
+                        FTPClient quitting = idle;
+                        connections.remove(quitting);
+                        workerPool.execute(() -> {
+                            try {
+                                quitting.quit();
+                            } catch (IOException e) {
+                                logger.warning(e.getMessage());
+                            }
+                        });
                     }
                 },
                 Configuration.FTPConnectionPoolConf.shrinkInterval,
-                Configuration.FTPConnectionPoolConf.shrinkInterval, TimeUnit.MILLISECONDS);
+                Configuration.FTPConnectionPoolConf.shrinkInterval);
     }
 
     /**
@@ -55,13 +60,7 @@ public class FTPConnectionPool extends LinkedBlockingQueue<FTPClient>
                 return result;
         }
         if ((clientCnt = initialized.getAndIncrement()) < capacity) {
-            try {
-                result = MultiThreadFTPClientHandler.FTPClientBuilder.newInstance();
-                logger.info(String.format("Generating new connection: %d/%d", clientCnt + 1, capacity));
-            } catch (ReflectiveOperationException e) {
-                initialized.getAndDecrement();
-                logger.warning(e.getCause().getMessage());
-            }
+            result = generate(clientCnt);
         } else {
             initialized.getAndDecrement();
             result = poll(Configuration.FTPConnectionPoolConf.pendingPollTimeOut, TimeUnit.MILLISECONDS);
@@ -69,10 +68,159 @@ public class FTPConnectionPool extends LinkedBlockingQueue<FTPClient>
         return result;
     }
 
-    public boolean shutThreadPoolNow() {
-        threadPool.shutdownNow();
-        while (!threadPool.isTerminated()) ;
-        boolean successShutDown = true;
+    /**
+     * Take {@link FTPClient} logged in as {@code user} and working in
+     * {@code dir}. An idle connection already in {@code dir} is preferred.
+     * Otherwise USER/PASS is skipped if the connection has already logged in
+     * with the same credentials, and CWD is skipped if it is already there.
+     * If every connection is busy, e.g. borrowed by
+     * {@link FTPClientImpl#runOnPooledConnections}, waits until one is
+     * given back, at most {@link Configuration.FTPConnectionPoolConf#sessionWaitTimeOut}.
+     *
+     * @param user username for ftp account
+     * @param pass password for ftp account
+     * @param dir  remote working directory
+     * @return {@link FTPClient} instance or null if a new connection fails.
+     * @throws InterruptedException if interrupted while waiting, e.g. the job is cancelled.
+     * @throws IOException          if no connection is given back in time, or login or CWD fails.
+     */
+    public FTPClient takeSession(String user, String pass, String dir)
+            throws InterruptedException, IOException {
+        FTPClientImpl result = null;
+        for (FTPClient idle : this) {
+            FTPClientImpl candidate = (FTPClientImpl) idle;
+            if (candidate.isLoggedInAs(user, pass)
+                    && dir.equals(candidate.getTrackedWorkingDirectory()) && remove(candidate)) {
+                result = candidate;
+                break;
+            }
+        }
+        if (result == null && (result = (FTPClientImpl) awaitOrGenerate()) == null)
+            return null;
+
+        try {
+            if (!result.isLoggedInAs(user, pass))
+                result.login(user, pass);
+            if (!dir.equals(result.getTrackedWorkingDirectory()))
+                result.changeWorkingDirectory(dir);
+        } catch (IOException e) {
+            giveBack(result);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Like {@link #takeOrGenerate()}, but keeps waiting for a connection
+     * to be given back as long as the pool is at capacity, up to
+     * {@link Configuration.FTPConnectionPoolConf#sessionWaitTimeOut}.
+     *
+     * @return {@link FTPClient} instance or null if a new connection fails.
+     * @throws InterruptedException .
+     * @throws IOException          if none is given back in time.
+     */
+    private FTPClient awaitOrGenerate() throws InterruptedException, IOException {
+        long waitTimeOut = Configuration.FTPConnectionPoolConf.sessionWaitTimeOut;
+        long deadline = System.currentTimeMillis() + waitTimeOut;
+        while (true) {
+            FTPClient result = poll();
+            if (result != null)
+                return result;
+            int clientCnt;
+            if ((clientCnt = initialized.getAndIncrement()) < capacity)
+                return generate(clientCnt);
+            initialized.getAndDecrement();
+            long pollTimeOut = Configuration.FTPConnectionPoolConf.pendingPollTimeOut;
+            if (waitTimeOut > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    throw new IOException(String.format(
+                            "No ftp connection given back within %dms, all %d busy", waitTimeOut, capacity));
+                pollTimeOut = Math.min(pollTimeOut, remaining);
+            }
+            result = poll(pollTimeOut, TimeUnit.MILLISECONDS);
+            if (result != null)
+                return result;
+            logger.info("All connections busy, still waiting for one");
+        }
+    }
+
+    /**
+     * Take {@link FTPClient} from {@link FTPConnectionPool} if one is idle,
+     * or generate one if not violating capacity restrictions. Unlike
+     * {@link #takeOrGenerate()}, never waits for a busy connection.
+     *
+     * @return {@link FTPClient} instance or null if none available.
+     */
+    public FTPClient tryTakeOrGenerate() {
+        FTPClient result = poll();
+        if (result != null)
+            return result;
+        int clientCnt;
+        if ((clientCnt = initialized.getAndIncrement()) < capacity) {
+            result = generate(clientCnt);
+        } else {
+            initialized.getAndDecrement();
+        }
+        return result;
+    }
+
+    private FTPClient generate(int clientCnt) {
+        try {
+            FTPClientImpl result = (FTPClientImpl) MultiThreadFTPClientHandler.FTPClientBuilder.newInstance();
+            result.setConnectionPool(this);
+            connections.add(result);
+            logger.info(String.format("Generating new connection: %d/%d", clientCnt + 1, capacity));
+            return result;
+        } catch (ReflectiveOperationException e) {
+            initialized.getAndDecrement();
+            logger.warning(e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Put {@link FTPClient} back, or quit it if the pool is full.
+     *
+     * @param ftpClient connection taken from this pool.
+     */
+    public void giveBack(FTPClient ftpClient) {
+        if (!offer(ftpClient)) {
+            logger.warning("Interrupted, quiting connection right away");
+            connections.remove(ftpClient);
+            try {
+                ftpClient.quit();
+            } catch (IOException ex) {
+                logger.severe(ex.getMessage());
+            }
+            initialized.getAndDecrement();
+        }
+    }
+
+    /**
+     * @return stats of every pooled connection, idle or taken.
+     */
+    public List<ConnectionStats> getConnectionStats() {
+        return connections.stream().map(FTPClientImpl::getConnectionStats).collect(Collectors.toList());
+    }
+
+    <T> Future<T> submit(Callable<T> task) {
+        return workerPool.submit(task);
+    }
+
+    /**
+     * Stop shrinking and borrowed-connection workers, then quit every idle connection.
+     *
+     * @return whether everything stopped and quit in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean shutThreadPoolNow() throws InterruptedException {
+        boolean successShutDown = shrink.cancel(Configuration.TimerServiceConf.cancelTimeOut, TimeUnit.MILLISECONDS);
+        workerPool.shutdownNow();
+        if (!workerPool.awaitTermination(Configuration.TimerServiceConf.cancelTimeOut, TimeUnit.MILLISECONDS)) {
+            logger.warning("Pooled connection workers still running after shutdown timeout");
+            successShutDown = false;
+        }
         for (FTPClient ftpClient : this) {
             try {
                 ftpClient.quit();
@@ -80,6 +228,7 @@ public class FTPConnectionPool extends LinkedBlockingQueue<FTPClient>
                 successShutDown = false;
                 logger.warning(e.getMessage());
             }
+            connections.remove(ftpClient);
             logger.info(String.format("Killing connection: %d/%d", initialized.decrementAndGet(), capacity));
         }
         return successShutDown;
@@ -1,5 +1,10 @@
 package ftp.client;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Representation of file and directory.
  * Note that this is <b>NOT</b> a resource.
@@ -8,11 +13,13 @@ public class FTPPath implements StreamLogging {
     private boolean isDirectory;
     private boolean readable;
     private boolean writable;
-    private int size;
+    private boolean hasPermission;
+    private long size;
+    private long modifiedTime;
     private String name;
     private String dir;
 
-    public FTPPath(String dir, String name, int size) {
+    public FTPPath(String dir, String name, long size) {
         this.dir = dir;
         this.name = name;
         this.size = size;
@@ -23,33 +30,267 @@ public class FTPPath implements StreamLogging {
         isDirectory = true;
     }
 
+    FTPPath(FTPPath other) {
+        isDirectory = other.isDirectory;
+        readable = other.readable;
+        writable = other.writable;
+        hasPermission = other.hasPermission;
+        size = other.size;
+        modifiedTime = other.modifiedTime;
+        name = other.name;
+        dir = other.dir;
+    }
+
+    /**
+     * Read permission out of a LIST line, e.g. "-rw-r--r-- 1 ftp ftp ...".
+     *
+     * @param perm LIST line of this path.
+     */
     public void addPermission(String perm) {
         readable = perm.charAt(1) == 'r';
         writable = perm.charAt(2) == 'w';
+        hasPermission = true;
+    }
+
+    /**
+     * Fill permissions of {@code paths} out of LIST response, matching
+     * lines by name rather than assuming the same order as MLSD.
+     *
+     * @param paths   paths without permission facts.
+     * @param listing LIST response of the same directory.
+     */
+    public static void addPermissions(FTPPath[] paths, String[] listing) {
+        Map<String, FTPPath> byName = new HashMap<>();
+        for (FTPPath path : paths)
+            byName.put(path.name, path);
+        for (String line : listing) {
+            // <perm> <links> <owner> <group> <size> <month> <day> <time|year> <name>
+            String[] fields = line.trim().split("\\s+", 9);
+            FTPPath path = fields.length == 9 ? byName.get(fields[8]) : null;
+            if (path != null && !path.hasPermission)
+                path.addPermission(fields[0]);
+        }
+    }
+
+    /**
+     * Parse LIST response of servers lacking MLSD, assuming the Unix
+     * "ls -l" layout most of them use. Modification time is not read,
+     * since LIST omits the year of recent files and the time of old ones.
+     *
+     * @param dir     listed directory.
+     * @param listing LIST response, one entry per line.
+     * @return entries of {@code dir}.
+     */
+    public static FTPPath[] parseFromLIST(String dir, String[] listing) {
+        List<FTPPath> paths = new ArrayList<>(listing.length);
+        for (String line : listing) {
+            FTPPath path = parseFromLIST(dir, line);
+            if (path != null)
+                paths.add(path);
+        }
+        return paths.toArray(new FTPPath[0]);
+    }
+
+    /**
+     * Parse one line of LIST response, see {@link #parseFromLIST(String, String[])}.
+     *
+     * @param dir  listed directory.
+     * @param line one LIST entry.
+     * @return entry of {@code dir}, or {@code null} if the line is
+     * e.g. "total 8", or names the directory itself or its parent.
+     */
+    public static FTPPath parseFromLIST(String dir, String line) {
+        // <perm> <links> <owner> <group> <size> <month> <day> <time|year> <name>
+        String[] fields = line.trim().split("\\s+", 9);
+        if (fields.length < 9 || fields[0].length() < 10)
+            return null;
+        String name = fields[8];
+        if (fields[0].charAt(0) == 'l' && name.contains(" -> "))
+            name = name.substring(0, name.indexOf(" -> "));
+        if (name.equals(".") || name.equals(".."))
+            return null;
+        FTPPath path = fields[0].charAt(0) == 'd' ? new FTPPath(dir, name)
+                : new FTPPath(dir, name, parseDigits(fields[4], 0, fields[4].length(), 10));
+        path.addPermission(fields[0]);
+        return path;
     }
 
+    /**
+     * Parse MLSD response, looking up facts by name in whatever order
+     * the server sends them. Permissions come from "UNIX.mode" (owner
+     * bits, as LIST shows them) or else "perm". Entries of the listed
+     * directory itself and of its parent are skipped.
+     *
+     * @param dir     listed directory.
+     * @param infoStr MLSD response, one entry per line.
+     * @return entries of {@code dir}.
+     * @see #hasPermission()
+     */
     public static FTPPath[] parseFromMLSD(String dir, String[] infoStr) {
-        FTPPath[] paths = new FTPPath[infoStr.length];
-        for (int i = 0; i < infoStr.length; i++) {
-            String[] res = infoStr[i].split(";");
-            if (res[0].endsWith("dir")) {
-                paths[i] = new FTPPath(dir, res[2].trim());
-            } else {
-                paths[i] = new FTPPath(dir, res[3].trim(),
-                        Integer.parseInt(res[2].split("=")[1]));
+        List<FTPPath> paths = new ArrayList<>(infoStr.length);
+        for (String info : infoStr) {
+            FTPPath path = parseFromMLSD(dir, info);
+            if (path != null)
+                paths.add(path);
+        }
+        return paths.toArray(new FTPPath[0]);
+    }
+
+    /**
+     * Parse one line of MLSD response, see {@link #parseFromMLSD(String, String[])}.
+     * Facts are scanned in place with {@link String#indexOf} and
+     * {@link String#regionMatches}, so that the name is the only
+     * String allocated per line.
+     *
+     * @param dir  listed directory.
+     * @param info one MLSD entry, "fact=value;...;fact=value; name".
+     * @return entry of {@code dir}, or {@code null} if the line is
+     * malformed or names the directory itself or its parent.
+     */
+    public static FTPPath parseFromMLSD(String dir, String info) {
+        int nameStart = info.indexOf(' ');
+        if (nameStart < 0)
+            return null;
+        boolean isDirectory = false;
+        long size = -1, modifiedTime = 0, mode = -1;
+        int permStart = -1, permEnd = -1;
+        for (int factStart = 0, factEnd; factStart < nameStart; factStart = factEnd + 1) {
+            factEnd = info.indexOf(';', factStart);
+            if (factEnd < 0 || factEnd > nameStart)
+                factEnd = nameStart;
+            int eq = info.indexOf('=', factStart);
+            if (eq < 0 || eq > factEnd)
+                continue;
+            int valueStart = eq + 1;
+            if (regionIs(info, factStart, eq, "type")) {
+                if (regionIs(info, valueStart, factEnd, "cdir")
+                        || regionIs(info, valueStart, factEnd, "pdir"))
+                    return null;
+                isDirectory = regionIs(info, valueStart, factEnd, "dir");
+            } else if (regionIs(info, factStart, eq, "size")) {
+                size = parseDigits(info, valueStart, factEnd, 10);
+            } else if (regionIs(info, factStart, eq, "modify")) {
+                modifiedTime = parseModify(info, valueStart, factEnd);
+            } else if (regionIs(info, factStart, eq, "unix.mode")) {
+                mode = parseDigits(info, valueStart, factEnd, 8);
+            } else if (regionIs(info, factStart, eq, "perm")) {
+                permStart = valueStart;
+                permEnd = factEnd;
             }
         }
-        return paths;
+
+        String name = info.substring(nameStart + 1);
+        FTPPath path = isDirectory ? new FTPPath(dir, name) : new FTPPath(dir, name, size);
+        path.modifiedTime = modifiedTime;
+        if (mode >= 0) {
+            long owner = mode >> 6;
+            path.readable = (owner & 4) != 0;
+            path.writable = (owner & 2) != 0;
+            path.hasPermission = true;
+        } else if (permStart >= 0) {
+            path.readable = isDirectory
+                    ? hasAnyOf(info, permStart, permEnd, "le")
+                    : hasAnyOf(info, permStart, permEnd, "r");
+            path.writable = isDirectory
+                    ? hasAnyOf(info, permStart, permEnd, "c")
+                    : hasAnyOf(info, permStart, permEnd, "wa");
+            path.hasPermission = true;
+        }
+        return path;
+    }
+
+    /** whether s[from, to) equals {@code expected}, ignoring case */
+    private static boolean regionIs(String s, int from, int to, String expected) {
+        return to - from == expected.length()
+                && s.regionMatches(true, from, expected, 0, expected.length());
+    }
+
+    /** whether s[from, to) contains any of {@code chars}, ignoring case */
+    private static boolean hasAnyOf(String s, int from, int to, String chars) {
+        for (int i = from; i < to; i++) {
+            if (chars.indexOf(Character.toLowerCase(s.charAt(i))) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    /** s[from, to) as an unsigned number, or -1 if empty or not a number */
+    private static long parseDigits(String s, int from, int to, int radix) {
+        if (from >= to || to - from > 18)
+            return -1;
+        long ret = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(s.charAt(i), radix);
+            if (digit < 0)
+                return -1;
+            ret = ret * radix + digit;
+        }
+        return ret;
+    }
+
+    /**
+     * Parse "YYYYMMDDHHMMSS[.sss]" (UTC, RFC 3659) into epoch milliseconds
+     * without going through java.time.
+     *
+     * @return epoch milliseconds, or 0 if malformed.
+     */
+    private static long parseModify(String s, int from, int to) {
+        if (to - from < 14)
+            return 0;
+        long year = parseDigits(s, from, from + 4, 10);
+        long month = parseDigits(s, from + 4, from + 6, 10);
+        long day = parseDigits(s, from + 6, from + 8, 10);
+        long hour = parseDigits(s, from + 8, from + 10, 10);
+        long minute = parseDigits(s, from + 10, from + 12, 10);
+        long second = parseDigits(s, from + 12, from + 14, 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || minute < 0 || second < 0)
+            return 0;
+        long millis = 0;
+        if (to - from > 15 && s.charAt(from + 14) == '.') {
+            int fractionEnd = Math.min(to, from + 18);
+            millis = Math.max(parseDigits(s, from + 15, fractionEnd, 10), 0);
+            for (int i = fractionEnd - from - 15; i < 3; i++)
+                millis *= 10;
+        }
+        // days from civil, proleptic Gregorian calendar
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long epochDay = era * 146097 + dayOfEra - 719468;
+        return ((epochDay * 24 + hour) * 60 + minute) * 60_000 + second * 1000 + millis;
     }
 
     public boolean isDirectory() {
         return isDirectory;
     }
 
-    public int getSize() {
+    /**
+     * @return size in bytes, or a negative number if unknown, e.g.
+     * the server didn't tell in MLSD. Always 0 for directories.
+     */
+    public long getSize() {
         return size;
     }
 
+    /**
+     * @return last modification time in epoch milliseconds,
+     * or 0 if the server didn't tell.
+     */
+    public long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    /**
+     * @return whether {@link #isReadable()} and {@link #isWritable()}
+     * are known, either from MLSD facts or from LIST.
+     */
+    public boolean hasPermission() {
+        return hasPermission;
+    }
+
     public String getName() {
         return name;
     }
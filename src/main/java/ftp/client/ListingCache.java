@@ -0,0 +1,109 @@
+package ftp.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Directory listings of one FTP server, keyed by absolute remote path.
+ * Entries expire after {@link Configuration.ListingCacheConf#timeToLive}
+ * and the least recently used ones are evicted beyond
+ * {@link Configuration.ListingCacheConf#maxEntries}. Connections to the
+ * same server share one cache, so a change made on any pooled connection
+ * invalidates what the others see. Entries are copied in and out, so
+ * callers may change what they get, e.g. by {@link FTPPath#addPermissions},
+ * without touching the cache.
+ */
+public class ListingCache {
+    private static final Map<String, ListingCache> caches = new ConcurrentHashMap<>();
+
+    private final LinkedHashMap<String, CachedListing> entries =
+            new LinkedHashMap<String, CachedListing>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedListing> eldest) {
+                    return size() > Configuration.ListingCacheConf.maxEntries;
+                }
+            };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class CachedListing {
+        final FTPPath[] paths;
+        final long expiresAt;
+
+        CachedListing(FTPPath[] paths, long expiresAt) {
+            this.paths = paths;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Get the cache shared by all connections to a server.
+     *
+     * @param addr FTP server address
+     * @param port FTP server port
+     * @return cache of that server.
+     */
+    public static ListingCache forServer(String addr, int port) {
+        return caches.computeIfAbsent(addr + ":" + port, k -> new ListingCache());
+    }
+
+    /**
+     * @param dir absolute remote directory.
+     * @return cached listing, or {@code null} if absent or expired.
+     */
+    public synchronized FTPPath[] get(String dir) {
+        CachedListing entry = entries.get(dir);
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(dir);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copyOf(entry.paths);
+    }
+
+    public synchronized void put(String dir, FTPPath[] paths) {
+        if (Configuration.ListingCacheConf.timeToLive <= 0)
+            return;
+        entries.put(dir, new CachedListing(copyOf(paths),
+                System.currentTimeMillis() + Configuration.ListingCacheConf.timeToLive));
+    }
+
+    /**
+     * Forget listings affected by a change of {@code path}: its own, its
+     * parent's, and every listing below it.
+     *
+     * @param path absolute remote path of changed file or directory.
+     */
+    public synchronized void invalidate(String path) {
+        entries.remove(path);
+        int slash = path.lastIndexOf('/');
+        if (slash >= 0)
+            entries.remove(slash == 0 ? "/" : path.substring(0, slash));
+        String prefix = path.endsWith("/") ? path : path + "/";
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); )
+            if (it.next().startsWith(prefix))
+                it.remove();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized ListingCacheStats getStats() {
+        return new ListingCacheStats(hits.get(), misses.get(), entries.size());
+    }
+
+    private static FTPPath[] copyOf(FTPPath[] paths) {
+        FTPPath[] ret = new FTPPath[paths.length];
+        for (int i = 0; i < paths.length; i++)
+            ret[i] = new FTPPath(paths[i]);
+        return ret;
+    }
+}
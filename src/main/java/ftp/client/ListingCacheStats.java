@@ -0,0 +1,37 @@
+package ftp.client;
+
+/**
+ * Snapshot of the hits and misses of a server's {@link ListingCache}.
+ * Expired listings count as misses.
+ */
+public class ListingCacheStats {
+    private final long hits;
+    private final long misses;
+    private final int entryNum;
+
+    ListingCacheStats(long hits, long misses, int entryNum) {
+        this.hits = hits;
+        this.misses = misses;
+        this.entryNum = entryNum;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return listings held, expired ones not yet looked up included.
+     */
+    public int getEntryNum() {
+        return entryNum;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits %d, misses %d, entries %d", hits, misses, entryNum);
+    }
+}
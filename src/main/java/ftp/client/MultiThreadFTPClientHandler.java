@@ -11,13 +11,8 @@ import java.util.concurrent.*;
 public class MultiThreadFTPClientHandler implements InvocationHandler, StreamLogging {
     private FTPClient master;
     private FTPConnectionPool ftpConnectionPool;
-    private final ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
-            Configuration.ExecutorPoolConf.corePoolSize,
-            Configuration.ExecutorPoolConf.maxPoolSize,
-            Configuration.ExecutorPoolConf.threadKeepAliveTime,
-            TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+    private TransferScheduler scheduler;
 
-    private Field remote;
     // login credential source
     private Field user;
     private Field pass;
@@ -29,13 +24,20 @@ public class MultiThreadFTPClientHandler implements InvocationHandler, StreamLog
         FTPClientBuilder.initialize(cls, addr, port);
         master = FTPClientBuilder.newInstance();
         ftpConnectionPool = new FTPConnectionPool(poolSize - 1);
+        ((FTPClientImpl) master).setConnectionPool(ftpConnectionPool);
+        // more workers than pooled connections would only wait for a connection; a job
+        // whose connection is borrowed by runOnPooledConnections waits in takeSession
+        @SuppressWarnings("deprecation")
+        int defaultConcurrency = Math.max(Configuration.ExecutorPoolConf.maxPoolSize,
+                Configuration.ExecutorPoolConf.corePoolSize);
+        int concurrency = Math.min(poolSize - 1, Configuration.ExecutorPoolConf.hostConcurrency
+                .getOrDefault(addr + ":" + port, defaultConcurrency));
+        scheduler = new TransferScheduler(concurrency, Configuration.ExecutorPoolConf.jobQueueCapacity);
         // login credential source for other thread
         user = master.getClass().getDeclaredField("username");
         pass = master.getClass().getDeclaredField("password");
-        remote = master.getClass().getDeclaredField("remoteDir");
         user.setAccessible(true);
         pass.setAccessible(true);
-        remote.setAccessible(true);
     }
 
     static class FTPClientBuilder {
@@ -61,8 +63,8 @@ public class MultiThreadFTPClientHandler implements InvocationHandler, StreamLog
         try {
             if (method.equals(FTPClient.class.getMethod("quit"))) {
                 logger.info("Start threads termination");
-                threadPool.shutdownNow();
-                while (!threadPool.isTerminated()) ;
+                if (!scheduler.shutdownNow(Configuration.ExecutorPoolConf.threadKeepAliveTime))
+                    logger.warning("Transfers still running after shutdown timeout");
                 logger.info("Thread pool shut down");
                 if (!ftpConnectionPool.shutThreadPoolNow())
                     return false;
@@ -75,46 +77,54 @@ public class MultiThreadFTPClientHandler implements InvocationHandler, StreamLog
         } catch (NoSuchMethodException | IOException e) {
             logger.severe(e.getMessage());
             return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.severe("Interrupted while waiting for transfers to stop");
+            return false;
         }
         if (method.isAnnotationPresent(NeedSpareThread.class)) {
             try {
-                String remoteDir = (String) remote.get(master);
+                // tracked on the client side, PWD only if unknown yet
+                String remoteDir = master.getWorkingDirectory();
+                if (remoteDir == null)
+                    throw new IOException("Failed to get working directory");
                 String username = (String) user.get(master);
                 String password = (String) pass.get(master);
-                threadPool.execute(() -> {
+                return scheduler.submit(() -> {
                     logger.info("Entering thread: " + Arrays.toString(objects));
                     FTPClient ftpClient = null;
                     try {
-                        ftpClient = ftpConnectionPool.takeOrGenerate();
-                        ftpClient.login(username, password);
-                        ftpClient.changeWorkingDirectory(remoteDir);
+                        ftpClient = ftpConnectionPool.takeSession(username, password, remoteDir);
+                        if (ftpClient == null)
+                            throw new IOException("Failed to obtain ftp connection");
                         method.invoke(ftpClient, objects);
-                    } catch (NullPointerException | InterruptedException e) {
+                        return null;
+                    } catch (InterruptedException e) {
                         logger.warning("Failed to obtain ftp connection");
+                        throw e;
+                    } catch (InvocationTargetException e) {
+                        Throwable cause = e.getCause();
+                        logger.severe(cause.getMessage() == null ? cause.toString() : cause.getMessage());
+                        throw cause instanceof Exception ? (Exception) cause : e;
                     } catch (Exception e) {
                         logger.severe(e.getMessage() != null
                                 ? e.getMessage()
-                                : e.getCause().getMessage() == null
-                                ? e.getCause().toString()
+                                : e.getCause() == null || e.getCause().getMessage() == null
+                                ? e.toString()
                                 : e.getCause().getMessage());
+                        throw e;
                     } finally {
-                        if (ftpClient != null) {
-                            if (!ftpConnectionPool.offer(ftpClient)) {
-                                logger.warning("Interrupted, quiting connection right away");
-                                try {
-                                    ftpClient.quit();
-                                } catch (IOException ex) {
-                                    logger.severe(ex.getMessage());
-                                }
-                            }
-                        }
+                        if (ftpClient != null)
+                            ftpConnectionPool.giveBack(ftpClient);
+                        logger.info("Exiting thread: " + Arrays.toString(objects));
                     }
-                    logger.info("Exiting thread: " + Arrays.toString(objects));
                 });
-            } catch (NullPointerException | IllegalAccessException e) {
+            } catch (NullPointerException | IllegalAccessException | IOException e) {
                 logger.severe("Master connection failed");
+                return CompletableFuture.failedFuture(e);
             } catch (RejectedExecutionException e) {
-                logger.warning("Rejecting new task: no vacant thread");
+                logger.warning("Rejecting new task: " + e.getMessage());
+                return CompletableFuture.failedFuture(e);
             }
         } else {
             try {
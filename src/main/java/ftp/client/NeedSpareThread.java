@@ -4,10 +4,12 @@ import java.lang.annotation.*;
 
 /**
  * Annotation for informing {@link MultiThreadFTPClientHandler}.
- * Methods annotated with {@link NeedSpareThread} will be executed on another
- * thread. However, the result value of such annotated method isn't handled
- * by {@link MultiThreadFTPClientHandler}, which means that such method should
- * declare {@code void} as returned type.
+ * Methods annotated with {@link NeedSpareThread} will be queued on
+ * {@link TransferScheduler} and executed on another thread. Instead of the
+ * result value of such annotated method, {@link MultiThreadFTPClientHandler}
+ * returns a handle to await or cancel the job, which means that such method
+ * should declare {@code Future<Void>} as returned type, and simply return a
+ * completed one when invoked directly.
  * <p><b>NOTE: </b>Only methods of {@link FTPClient} interface should be
  * annotated with {@link NeedSpareThread}, or else it makes no difference,
  * since {@link MultiThreadFTPClientHandler} only works with interface.</p>
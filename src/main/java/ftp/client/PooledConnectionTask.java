@@ -0,0 +1,12 @@
+package ftp.client;
+
+/**
+ * Work executed on a logged-in connection, either the calling one or
+ * one borrowed from {@link FTPConnectionPool}.
+ *
+ * @see FTPClientImpl#runOnPooledConnections(int, PooledConnectionTask)
+ */
+@FunctionalInterface
+public interface PooledConnectionTask {
+    void run(ControlSocket controlSocket, FTPClient ftpClient) throws Exception;
+}
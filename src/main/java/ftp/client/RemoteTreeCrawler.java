@@ -0,0 +1,187 @@
+package ftp.client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Walk a remote directory tree breadth-first over several pooled
+ * connections. Directories waiting to be listed are shared through a
+ * frontier bounded by {@link Configuration.RemoteTreeCrawlerConf#frontierCapacity};
+ * a connection that finds the frontier full lists the overflow itself,
+ * depth-first. Listings are streamed with {@link FTPClient#list(String, Consumer)},
+ * so no directory is ever held in memory as a whole.
+ */
+public class RemoteTreeCrawler implements StreamLogging {
+    private final FTPClientImpl ftpClient;
+
+    public RemoteTreeCrawler(FTPClientImpl ftpClient) {
+        this.ftpClient = ftpClient;
+    }
+
+    /**
+     * Size of a tree, e.g. to plan a transfer before starting it.
+     *
+     * @param root remote directory, absolute or relative to the working one.
+     * @return totals of the tree.
+     * @throws IOException if a connection failed.
+     */
+    public Summary summarize(String root) throws IOException {
+        return crawl(root, path -> {});
+    }
+
+    /**
+     * Emit every entry below {@code root}, which itself is not emitted.
+     * A directory is always emitted before any entry inside it, but
+     * otherwise in no particular order. {@code consumer} is called
+     * concurrently from several connections while their listings are
+     * still arriving, so it must be thread-safe and must <b>NOT</b>
+     * send commands through any of them. Directories failing to list
+     * are counted in {@link Summary#getFailedDirectoryNum()} and skipped.
+     *
+     * @param root     remote directory, absolute or relative to the working one.
+     * @param consumer Called with every entry.
+     * @return totals of the tree.
+     * @throws IOException if a connection or {@code consumer} failed,
+     *                     in which case the crawl stops on every connection.
+     * @see Configuration.RemoteTreeCrawlerConf#parallelism
+     */
+    public Summary crawl(String root, Consumer<FTPPath> consumer) throws IOException {
+        // pooled connections have working directories of their own
+        Walk walk = new Walk(root.startsWith("/") ? root : new FTPPath(
+                ftpClient.getWorkingDirectory(), root).getPath(), consumer);
+        long startTime = System.currentTimeMillis();
+        try {
+            ftpClient.runOnPooledConnections(Configuration.RemoteTreeCrawlerConf.parallelism,
+                    (workerControlSocket, workerClient) -> walk.drain(workerClient));
+        } finally {
+            walk.stopped = true;
+        }
+        Summary ret = new Summary(walk.fileNum.sum(), walk.directoryNum.sum(), walk.byteNum.sum(),
+                walk.failedDirectoryNum.sum(), System.currentTimeMillis() - startTime);
+        logger.info("Crawled " + root + ": " + ret);
+        return ret;
+    }
+
+    /** state of one crawl shared by its connections */
+    static class Walk implements StreamLogging {
+        final Consumer<FTPPath> consumer;
+        final BlockingQueue<String> frontier = new LinkedBlockingQueue<>(
+                Math.max(1, Configuration.RemoteTreeCrawlerConf.frontierCapacity));
+        /** directories found but not listed yet, in frontier or in overflow */
+        final AtomicInteger pendingDirNum = new AtomicInteger();
+        final LongAdder fileNum = new LongAdder();
+        final LongAdder directoryNum = new LongAdder();
+        final LongAdder byteNum = new LongAdder();
+        final LongAdder failedDirectoryNum = new LongAdder();
+        volatile boolean stopped;
+
+        /**
+         * @param root     absolute remote directory, listed first.
+         * @param consumer Called with every entry.
+         */
+        Walk(String root, Consumer<FTPPath> consumer) {
+            this.consumer = consumer;
+            frontier.add(root);
+            pendingDirNum.set(1);
+        }
+
+        void drain(FTPClient workerClient) throws IOException, InterruptedException {
+            Deque<String> overflow = new ArrayDeque<>();
+            try {
+                while (!stopped && !Thread.currentThread().isInterrupted()) {
+                    String dir = overflow.poll();
+                    if (dir == null)
+                        dir = frontier.poll(100, TimeUnit.MILLISECONDS);
+                    if (dir == null) {
+                        if (pendingDirNum.get() == 0)
+                            break;
+                        continue;
+                    }
+                    try {
+                        if (!workerClient.list(dir, path -> emit(path, overflow))) {
+                            failedDirectoryNum.increment();
+                            logger.warning("Failed to list " + dir);
+                        }
+                    } finally {
+                        pendingDirNum.decrementAndGet();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // overflow will never be listed, so nobody else may wait for it
+                stopped = true;
+                throw e;
+            }
+        }
+
+        private void emit(FTPPath path, Deque<String> overflow) {
+            if (path.isDirectory()) {
+                directoryNum.increment();
+                consumer.accept(path);
+                pendingDirNum.incrementAndGet();
+                if (!frontier.offer(path.getPath()))
+                    overflow.push(path.getPath());
+            } else {
+                fileNum.increment();
+                // -1 if the listing has no size, e.g. MLSD without the size fact
+                if (path.getSize() >= 0)
+                    byteNum.add(path.getSize());
+                consumer.accept(path);
+            }
+        }
+    }
+
+    /**
+     * Totals of a crawled tree, excluding its root.
+     */
+    public static class Summary {
+        private final long fileNum;
+        private final long directoryNum;
+        private final long byteNum;
+        private final long failedDirectoryNum;
+        private final long elapsedMillis;
+
+        Summary(long fileNum, long directoryNum, long byteNum, long failedDirectoryNum, long elapsedMillis) {
+            this.fileNum = fileNum;
+            this.directoryNum = directoryNum;
+            this.byteNum = byteNum;
+            this.failedDirectoryNum = failedDirectoryNum;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getFileNum() {
+            return fileNum;
+        }
+
+        public long getDirectoryNum() {
+            return directoryNum;
+        }
+
+        /**
+         * @return total size of the files whose size was listed.
+         */
+        public long getByteNum() {
+            return byteNum;
+        }
+
+        public long getFailedDirectoryNum() {
+            return failedDirectoryNum;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d file(s), %d directory(s), %d byte(s), %d unlisted, in %dms",
+                    fileNum, directoryNum, byteNum, failedDirectoryNum, elapsedMillis);
+        }
+    }
+}
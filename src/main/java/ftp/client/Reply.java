@@ -0,0 +1,38 @@
+package ftp.client;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A complete reply on the control connection, single or multi-line.
+ * The text is decoded on first {@link #getMessage()} only.
+ */
+public class Reply {
+    private final int statusCode;
+    private final byte[] bytes;
+    private volatile String message;
+
+    Reply(int statusCode, byte[] bytes) {
+        this.statusCode = statusCode;
+        this.bytes = bytes;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return every line of the reply, each ended by '\n', as
+     * {@link ControlSocket#getMessage()}.
+     */
+    public String getMessage() {
+        String ret = message;
+        if (ret == null)
+            message = ret = new String(bytes, StandardCharsets.UTF_8);
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return getMessage().trim();
+    }
+}
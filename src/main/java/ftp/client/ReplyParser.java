@@ -0,0 +1,109 @@
+package ftp.client;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Incremental parser of control connection replies. Bytes are fed as
+ * they arrive, in chunks of any size; a multi-line reply starts with
+ * "xyz-" and ends with a line starting with "xyz " (RFC 959 4.2).
+ * <p>Bytes are collected in a buffer reused for every reply, with "\r\n"
+ * turned into "\n". Status code and continuation are read from it in
+ * place, so a reply costs no allocation unless its text is asked for by
+ * {@link #getMessage()}. The buffer is kept until the next reply starts.</p>
+ */
+class ReplyParser {
+    private byte[] bytes = new byte[512];
+    private int length;
+    private int lineStart;
+    /** status code of the current reply, or -1 before its first line is complete */
+    private int statusCode = -1;
+    private boolean complete;
+
+    /**
+     * Consume {@code src} up to the end of the current reply.
+     *
+     * @return bytes consumed, fewer than {@code count} if a reply was
+     * completed before the end of {@code src}.
+     * @throws ProtocolException if a reply doesn't start with a status code.
+     */
+    int feed(byte[] src, int offset, int count) throws ProtocolException {
+        for (int i = 0; i < count; i++) {
+            if (append(src[offset + i]))
+                return i + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Consume {@code src} entirely, passing on every reply completed.
+     * Each reply gets its own copy of the bytes, decoded only if asked.
+     *
+     * @throws ProtocolException if a reply doesn't start with a status code.
+     */
+    void feed(ByteBuffer src, Consumer<Reply> replies) throws ProtocolException {
+        while (src.hasRemaining()) {
+            if (append(src.get()))
+                replies.accept(new Reply(statusCode, Arrays.copyOf(bytes, length)));
+        }
+    }
+
+    /**
+     * @return whether the last byte fed ended a reply.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return every line of the current reply, each ended by '\n'.
+     */
+    String getMessage() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** @return whether {@code b} ended a reply */
+    private boolean append(byte b) throws ProtocolException {
+        if (complete) {
+            complete = false;
+            length = 0;
+            lineStart = 0;
+            statusCode = -1;
+        }
+        if (b == '\n' && length > lineStart && bytes[length - 1] == '\r')
+            length--;
+        if (length == bytes.length)
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        bytes[length++] = b;
+        if (b != '\n')
+            return false;
+        complete = isLastLine(length - 1 - lineStart);
+        lineStart = length;
+        return complete;
+    }
+
+    private boolean isLastLine(int lineLength) throws ProtocolException {
+        if (statusCode < 0) {
+            if (lineLength < 3 || !isDigit(bytes[lineStart]) || !isDigit(bytes[lineStart + 1])
+                    || !isDigit(bytes[lineStart + 2]))
+                throw new ProtocolException("Malformed reply: "
+                        + new String(bytes, lineStart, lineLength, StandardCharsets.UTF_8));
+            statusCode = (bytes[lineStart] - '0') * 100 + (bytes[lineStart + 1] - '0') * 10
+                    + (bytes[lineStart + 2] - '0');
+            return lineLength == 3 || bytes[lineStart + 3] != '-';
+        }
+        return lineLength >= 4 && bytes[lineStart] == bytes[0] && bytes[lineStart + 1] == bytes[1]
+                && bytes[lineStart + 2] == bytes[2] && bytes[lineStart + 3] == ' ';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,162 @@
+package ftp.client;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Features an FTP server advertises in reply to FEAT (RFC 2389). FEAT
+ * is sent once per server; later connections to the same server,
+ * e.g. pooled ones, reuse the result. For servers not answering FEAT,
+ * commands this client has always relied on (MLSD, MLST, SIZE, MDTM,
+ * REST) are assumed supported, and extensions (EPSV, UTF8, MODE Z,
+ * HASH) are not.
+ */
+public class ServerFeatures implements StreamLogging {
+    private static final Map<String, ServerFeatures> servers = new ConcurrentHashMap<>();
+
+    private final boolean negotiated;
+    /** upper-case feature name -> parameters, e.g. "REST" -> "STREAM" */
+    private final Map<String, String> advertised;
+    /** lower-case MLST facts, whether enabled or not */
+    private final Set<String> mlstFacts;
+
+    private ServerFeatures(boolean negotiated, Map<String, String> advertised) {
+        this.negotiated = negotiated;
+        this.advertised = advertised;
+        Set<String> facts = new HashSet<>();
+        for (String fact : advertised.getOrDefault("MLST", "").split(";")) {
+            if (!fact.isEmpty())
+                facts.add(fact.replace("*", "").toLowerCase());
+        }
+        this.mlstFacts = Collections.unmodifiableSet(facts);
+    }
+
+    /**
+     * Get features of a server, sending FEAT through {@code controlSocket}
+     * only if no connection to it has done so before. May be called
+     * before login.
+     *
+     * @param addr          FTP server address
+     * @param port          FTP server port
+     * @param controlSocket connection to that server.
+     * @return features of that server.
+     * @throws IOException .
+     */
+    static ServerFeatures forServer(String addr, int port, ControlSocket controlSocket) throws IOException {
+        String key = addr + ":" + port;
+        ServerFeatures ret = servers.get(key);
+        if (ret != null)
+            return ret;
+        controlSocket.execute("FEAT");
+        ret = controlSocket.getStatusCode() == 211
+                ? parse(controlSocket.getMessage()) : new ServerFeatures(false, Collections.emptyMap());
+        logger.info("Server features of " + key + ": " + ret);
+        ServerFeatures probed = servers.putIfAbsent(key, ret);
+        return probed != null ? probed : ret;
+    }
+
+    /**
+     * Parse FEAT reply, one feature per line indented by a space, e.g.
+     * <pre>
+     * 211-Features:
+     *  MLST type*;size*;modify*;
+     *  REST STREAM
+     * 211 End
+     * </pre>
+     */
+    private static ServerFeatures parse(String message) {
+        Map<String, String> advertised = new HashMap<>();
+        for (String line : message.split("\n")) {
+            if (!line.startsWith(" "))
+                continue;
+            String feature = line.trim();
+            int nameEnd = feature.indexOf(' ');
+            if (nameEnd < 0)
+                advertised.put(feature.toUpperCase(), "");
+            else
+                advertised.put(feature.substring(0, nameEnd).toUpperCase(), feature.substring(nameEnd + 1).trim());
+        }
+        return new ServerFeatures(true, Collections.unmodifiableMap(advertised));
+    }
+
+    /**
+     * @return whether the server answered FEAT at all.
+     */
+    public boolean isNegotiated() {
+        return negotiated;
+    }
+
+    /**
+     * @param feature feature name, e.g. "EPSV".
+     * @return whether it is advertised.
+     */
+    public boolean has(String feature) {
+        return advertised.containsKey(feature.toUpperCase());
+    }
+
+    /**
+     * @return whether MLST, and so MLSD, is supported (RFC 3659).
+     */
+    public boolean supportsMLST() {
+        return !negotiated || has("MLST");
+    }
+
+    /**
+     * @param fact MLST fact name, e.g. "perm".
+     * @return whether the server knows that fact, or {@code true} if unknown.
+     */
+    public boolean supportsMLSTFact(String fact) {
+        return !negotiated || mlstFacts.contains(fact.toLowerCase());
+    }
+
+    public boolean supportsSIZE() {
+        return !negotiated || has("SIZE");
+    }
+
+    public boolean supportsMDTM() {
+        return !negotiated || has("MDTM");
+    }
+
+    /**
+     * @return whether REST may be sent before RETR to resume a download.
+     */
+    public boolean supportsRESTStream() {
+        return !negotiated || "STREAM".equalsIgnoreCase(advertised.get("REST"));
+    }
+
+    public boolean supportsEPSV() {
+        return has("EPSV");
+    }
+
+    public boolean supportsUTF8() {
+        return has("UTF8");
+    }
+
+    /**
+     * Recorded only, transfers are never compressed yet.
+     *
+     * @return whether MODE Z (deflate) is supported.
+     */
+    public boolean supportsModeZ() {
+        return advertised.getOrDefault("MODE", "").toUpperCase().contains("Z");
+    }
+
+    /**
+     * Recorded only, checksums are never requested yet.
+     *
+     * @return whether HASH is supported.
+     */
+    public boolean supportsHASH() {
+        return has("HASH");
+    }
+
+    @Override
+    public String toString() {
+        return negotiated ? advertised.keySet().toString() : "FEAT not supported";
+    }
+}
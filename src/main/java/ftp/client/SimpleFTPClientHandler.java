@@ -3,6 +3,8 @@ package ftp.client;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 /**
  * FTP Client Proxy Class. Invoke methods with try-catch wrappers.
@@ -25,6 +27,9 @@ public class SimpleFTPClientHandler implements InvocationHandler, StreamLogging
             ret = method.invoke(ftpClient, objects);
         } catch (ReflectiveOperationException e) {
             logger.severe(e.getCause().getMessage());
+            // keep the handle contract of NeedSpareThread methods
+            if (Future.class.isAssignableFrom(method.getReturnType()))
+                ret = CompletableFuture.failedFuture(e.getCause());
         }
         return ret;
     }
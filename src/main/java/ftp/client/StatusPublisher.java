@@ -1,6 +1,20 @@
 package ftp.client;
 
 public interface StatusPublisher {
+    /**
+     * Publisher ignoring everything, for transfers reported as part of
+     * an aggregated status.
+     */
+    StatusPublisher SILENT = new StatusPublisher() {
+        @Override
+        public int initialize(String localPath, String remotePath, DIRECTION direction, String size) {
+            return 0;
+        }
+
+        @Override
+        public void publish(int id, String status) {
+        }
+    };
 
     enum DIRECTION {
         DOWNLOAD, UPLOAD
@@ -0,0 +1,214 @@
+package ftp.client;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide timer for periodic chores of every connection, such as
+ * keep-alive and pool shrinking, in place of a scheduler thread each.
+ * Timeouts are kept in a hashed timing wheel advanced by one ticker
+ * thread, so scheduling and cancelling are O(1) however many connections
+ * there are. Due tasks run on a few worker threads, never on the ticker.
+ * <p>Those workers are shared by the whole process, so tasks must not
+ * block on network: keep-alive writes NOOP without waiting for its reply,
+ * and pool shrinking hands QUIT over to the pool's own threads.</p>
+ */
+public class TimerService implements StreamLogging {
+    private static volatile TimerService defaultService;
+
+    private final long tickMillis;
+    private final int mask;
+    /** ticker thread only */
+    private final Deque<Timeout>[] wheel;
+    private long tick;
+    /** scheduled from any thread, moved into {@link #wheel} on next tick */
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final ThreadPoolExecutor workers;
+    private final Thread ticker;
+
+    /**
+     * @param tickMillis      timing resolution.
+     * @param wheelSize       buckets of the wheel, rounded up to a power of 2.
+     * @param workerThreadNum max tasks running at the same time.
+     */
+    @SuppressWarnings("unchecked")
+    public TimerService(long tickMillis, int wheelSize, int workerThreadNum) {
+        this.tickMillis = Math.max(1, tickMillis);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        mask = size - 1;
+        wheel = (Deque<Timeout>[]) new Deque<?>[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new ArrayDeque<>();
+
+        AtomicInteger workerNum = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerThreadNum, workerThreadNum,
+                Configuration.ExecutorPoolConf.threadKeepAliveTime, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "ftp-timer-worker-" + workerNum.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true);
+        ticker = new Thread(this::runTicker, "ftp-timer");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * @return service shared by all connections, started on first use
+     * as configured by {@link Configuration.TimerServiceConf}.
+     */
+    public static TimerService getDefault() {
+        if (defaultService == null) {
+            synchronized (TimerService.class) {
+                if (defaultService == null)
+                    defaultService = new TimerService(Configuration.TimerServiceConf.tickDuration,
+                            Configuration.TimerServiceConf.wheelSize,
+                            Configuration.TimerServiceConf.workerThreadNum);
+            }
+        }
+        return defaultService;
+    }
+
+    /**
+     * Run {@code task} once after {@code delay} milliseconds.
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        return add(new Timeout(task, elapsedMillis() + delay, -1));
+    }
+
+    /**
+     * Run {@code task} after {@code initialDelay} milliseconds, then
+     * {@code delay} milliseconds after each run ends, until cancelled.
+     * Unlike {@link java.util.concurrent.ScheduledExecutorService}, a
+     * run throwing doesn't suppress later ones.
+     */
+    public Timeout scheduleWithFixedDelay(Runnable task, long initialDelay, long delay) {
+        return add(new Timeout(task, elapsedMillis() + initialDelay, Math.max(1, delay)));
+    }
+
+    /**
+     * Stop ticking and interrupt running tasks. Pending timeouts never fire.
+     */
+    public void shutdownNow() {
+        ticker.interrupt();
+        workers.shutdownNow();
+    }
+
+    /**
+     * @return whether the ticker and all workers stopped in time.
+     * @throws InterruptedException .
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        ticker.join(Math.max(1, unit.toMillis(timeout)));
+        return !ticker.isAlive() && workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private Timeout add(Timeout timeout) {
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private void runTicker() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long sleepMillis = (tick + 1) * tickMillis - elapsedMillis();
+                if (sleepMillis > 0)
+                    Thread.sleep(sleepMillis);
+                Timeout timeout;
+                while ((timeout = pendingTimeouts.poll()) != null) {
+                    if (timeout.cancelled)
+                        continue;
+                    long ticks = timeout.deadline / tickMillis;
+                    timeout.remainingRounds = Math.max(0, (ticks - tick) / wheel.length);
+                    wheel[(int) (Math.max(ticks, tick) & mask)].add(timeout);
+                }
+                for (Iterator<Timeout> it = wheel[(int) (tick & mask)].iterator(); it.hasNext(); ) {
+                    timeout = it.next();
+                    if (timeout.cancelled) {
+                        it.remove();
+                    } else if (timeout.remainingRounds > 0) {
+                        timeout.remainingRounds--;
+                    } else {
+                        it.remove();
+                        workers.execute(timeout::run);
+                    }
+                }
+                tick++;
+            }
+        } catch (InterruptedException e) {
+            logger.info("Timer stopped");
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public class Timeout {
+        private final Runnable task;
+        private final long period;
+        /** lock-free, a cancelled timeout is dropped by the ticker when met */
+        private volatile boolean cancelled;
+        /** held while running, so that cancelling may wait for it */
+        private final ReentrantLock running = new ReentrantLock();
+        private volatile long deadline;
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        private void run() {
+            running.lock();
+            try {
+                if (!cancelled)
+                    task.run();
+            } catch (RuntimeException e) {
+                logger.warning("Timer task failed: " + e);
+            } finally {
+                running.unlock();
+            }
+            if (period > 0 && !cancelled) {
+                deadline = elapsedMillis() + period;
+                add(this);
+            }
+        }
+
+        /**
+         * Prevent further runs, without waiting for a running one.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Prevent further runs and wait for a running one to end.
+         *
+         * @return whether no run is going on any more.
+         * @throws InterruptedException .
+         */
+        public boolean cancel(long timeout, TimeUnit unit) throws InterruptedException {
+            cancelled = true;
+            if (!running.tryLock(timeout, unit))
+                return false;
+            running.unlock();
+            return true;
+        }
+    }
+}
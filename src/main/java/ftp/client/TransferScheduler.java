@@ -0,0 +1,72 @@
+package ftp.client;
+
+import java.util.concurrent.*;
+
+/**
+ * Scheduler for {@link NeedSpareThread} jobs of one FTP server. Jobs wait
+ * in a bounded in-memory queue and are run by a fixed number of workers.
+ * When the queue is full, submitting blocks the caller until a slot frees
+ * up (backpressure), rather than rejecting the job.
+ */
+public class TransferScheduler implements StreamLogging {
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param concurrency   max jobs running at the same time.
+     * @param queueCapacity max jobs waiting to run.
+     */
+    public TransferScheduler(int concurrency, int queueCapacity) {
+        executor = new ThreadPoolExecutor(concurrency, concurrency,
+                Configuration.ExecutorPoolConf.threadKeepAliveTime, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), (job, self) -> {
+            if (self.isShutdown())
+                throw new RejectedExecutionException("Transfer scheduler shut down");
+            try {
+                logger.info("Transfer queue full, waiting for a vacant slot");
+                self.getQueue().put(job);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for a vacant slot", e);
+            }
+            // shut down while waiting, nobody is going to run it
+            if (self.isShutdown() && self.getQueue().remove(job) && job instanceof Future)
+                ((Future<?>) job).cancel(false);
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue {@code job}, blocking while the queue is full.
+     *
+     * @param job transfer job.
+     * @return handle to await or cancel the job. Cancelling a running job
+     * interrupts its thread, which aborts the transfer.
+     * @throws RejectedExecutionException if shut down, or interrupted
+     *                                    while waiting for a vacant slot.
+     */
+    public <T> Future<T> submit(Callable<T> job) {
+        return executor.submit(job);
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public int getRunningCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Interrupt running jobs, cancel queued ones and wait for the workers.
+     *
+     * @param timeout max milliseconds to wait.
+     * @return {@code true} if all workers terminated in time.
+     * @throws InterruptedException .
+     */
+    public boolean shutdownNow(long timeout) throws InterruptedException {
+        for (Runnable job : executor.shutdownNow())
+            if (job instanceof Future)
+                ((Future<?>) job).cancel(false);
+        return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+}
@@ -4,18 +4,25 @@ import ftp.client.*;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Paths;
-import java.util.Calendar;
+import java.nio.file.StandardOpenOption;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Downloader implements StreamLogging {
+    private static final Pattern SIZE_REPLY = Pattern.compile("(\\d+)(\\s)(\\d+)(\\s+)");
+
     private final ControlSocket controlSocket;
     private final FTPClient ftpClient;
     private final StatusPublisher guiStatusPublisher;
     private DownloadExpectedStatusCodes expectedStatusCodes;
     private boolean isAborted;
+    private boolean isAbsolutePathRejected;
+    private boolean isAbsolutePathAccepted;
 
     public Downloader(ControlSocket controlSocket, FTPClient ftpClient, StatusPublisher guiStatusPublisher) {
         this.controlSocket = controlSocket;
@@ -25,6 +32,21 @@ public class Downloader implements StreamLogging {
         this.isAborted = false;
     }
 
+    /** server took an absolute path elsewhere already, e.g. SIZE in {@link SegmentedDownloader} */
+    /**
+     * Check {@code remotePath} as a download does, see
+     * {@link #checkRemoteFile(FTPPath, FileInfo)}. The decision on
+     * absolute paths is kept for later downloads by this instance.
+     *
+     * @return size, and name to send: absolute path, or name in
+     * {@code serverFileDir}, which is then the working directory.
+     */
+    FileInfo checkRemoteFile(FTPPath remotePath) throws DownloadException, IOException {
+        FileInfo ret = new FileInfo();
+        checkRemoteFile(remotePath, ret);
+        return ret;
+    }
+
     public void downloadFileOrDirectory(FTPPath downloadFrom, String saveTo) throws DownloadException, IOException {
         if (isAborted) {
             return;
@@ -57,8 +79,17 @@ public class Downloader implements StreamLogging {
         FileInfo fileInfo = new FileInfo();
         checkRemoteFile(downloadFrom, fileInfo);
         checkLocalPath(saveTo, fileInfo);
+        ServerFeatures serverFeatures = controlSocket.getServerFeatures();
+        if (fileInfo.downloadedByteNum > 0 && serverFeatures != null && !serverFeatures.supportsRESTStream()) {
+            logger.info("REST not supported, downloading from the beginning: " + downloadFrom.getPath());
+            fileInfo.downloadedByteNum = 0;
+        }
+        if (fileInfo.isSizeFromListing && fileInfo.downloadedByteNum > 0) {
+            // listing may be outdated, resuming relies on the current size
+            fileInfo.serverFileByteNum = getServerFileSize(fileInfo.serverFileName, downloadFrom);
+            checkLocalPath(saveTo, fileInfo);
+        }
 
-        long dataSocketOpenedTimeInMs = Calendar.getInstance().getTimeInMillis();
         fileInfo.guiStatusID = guiStatusPublisher.initialize(saveTo, downloadFrom.getPath(),
                 StatusPublisher.DIRECTION.DOWNLOAD, getSize(fileInfo.serverFileByteNum));
         guiStatusPublisher.publish(fileInfo.guiStatusID, "0.00%");
@@ -67,13 +98,44 @@ public class Downloader implements StreamLogging {
             // REST must be executed right before RETR
             ftpDataSocket = execFTPCommand("RETR", fileInfo.serverFileName,
                     "REST", String.valueOf(fileInfo.downloadedByteNum));
-            publishGUIStatus(fileInfo, guiStatusPublisher);
+            if (ftpDataSocket != null) {
+                publishGUIStatus(fileInfo, guiStatusPublisher);
+            } else {
+                // .ftpdownloading is truncated as downloadedByteNum is 0
+                logger.warning("REST rejected, downloading from the beginning: " + downloadFrom.getPath());
+                fileInfo.downloadedByteNum = 0;
+                ftpDataSocket = (DataSocket) execFTPCommand("RETR", fileInfo.serverFileName, true);
+            }
         } else {
             ftpDataSocket = (DataSocket) execFTPCommand("RETR", fileInfo.serverFileName, true);
         }
 
-        Socket dataSocket = ftpDataSocket.getDataSocket();
         File tempFilePath = new File(fileInfo.localFilePath + ".ftpdownloading");
+        if (Configuration.DataSocketConf.zeroCopy) {
+            receiveByChannel(ftpDataSocket, tempFilePath, fileInfo);
+        } else {
+            receiveByStream(ftpDataSocket, tempFilePath, fileInfo);
+        }
+
+        // drained to end of stream; closing it reads the reply ending the transfer
+        ftpDataSocket.close(); // as well as associated InputStream readFromServer
+        if (!isAborted && controlSocket.getStatusCode() / 100 != 2) {
+            // keep .ftpdownloading for resuming
+            throw new FTPCommandFailedException("RETR", fileInfo.serverFileName, controlSocket.getMessage());
+        }
+
+        if (!isAborted) {
+            Files.move(tempFilePath.toPath(), Paths.get(saveTo));
+            if (Configuration.DownloaderConf.preserveModifiedTime && downloadFrom.getModifiedTime() > 0) {
+                new File(saveTo).setLastModified(downloadFrom.getModifiedTime());
+            }
+        }
+        guiStatusPublisher.publish(fileInfo.guiStatusID, "完成");
+    }
+
+    /** copy data socket stream into temp file through a heap buffer */
+    private void receiveByStream(DataSocket ftpDataSocket, File tempFilePath, FileInfo fileInfo) throws IOException {
+        Socket dataSocket = ftpDataSocket.getDataSocket();
         FileOutputStream tempFileStream;
         if (fileInfo.downloadedByteNum > 0) {
             tempFileStream = new FileOutputStream(tempFilePath, true);
@@ -104,27 +166,24 @@ public class Downloader implements StreamLogging {
 
         tempFileBufferedStream.flush();
         tempFileBufferedStream.close(); // as well as underlying FileOutputStream tempFileStream
-        final long minDataSocketLiveTimeInMs = 1000;
-        long dataSocketClosedTimeInMs = Calendar.getInstance().getTimeInMillis();
-        long dataSocketLiveTime = dataSocketClosedTimeInMs - dataSocketOpenedTimeInMs;
-        if (dataSocketLiveTime < minDataSocketLiveTimeInMs) {
-            logger.warning(String.format(
-                    "DataSocket will die too fast (%s ms). +%ss for it.",
-                    dataSocketLiveTime, minDataSocketLiveTimeInMs / 1000)
-            );
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                isAborted = true;
-            }
-        }
-        ftpDataSocket.close(); // as well as associated InputStream readFromServer
+    }
 
-        if (!isAborted) {
-            Files.move(tempFilePath.toPath(), Paths.get(saveTo));
+    /** zero-copy: socket channel -> FileChannel.transferFrom, starting at REST offset */
+    private void receiveByChannel(DataSocket ftpDataSocket, File tempFilePath, FileInfo fileInfo) throws IOException {
+        OpenOption[] openOptions = fileInfo.downloadedByteNum > 0
+                ? new OpenOption[]{StandardOpenOption.WRITE, StandardOpenOption.CREATE}
+                : new OpenOption[]{StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING};
+        try (FileChannel tempFileChannel = FileChannel.open(tempFilePath.toPath(), openOptions)) {
+            ftpDataSocket.receiveTo(tempFileChannel, fileInfo.downloadedByteNum, Long.MAX_VALUE,
+                    position -> publishGUIStatus(fileInfo, position));
+        } catch (ClosedByInterruptException e) {
+            // FileChannel is closed by interruption, the partial file is kept for resuming
+            isAborted = true;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            isAborted = true;
         }
-        guiStatusPublisher.publish(fileInfo.guiStatusID, "完成");
     }
 
     private void publishGUIStatus(FileInfo fileInfo, StatusPublisher guiStatusPublisher) {
@@ -136,6 +195,12 @@ public class Downloader implements StreamLogging {
         }
     }
 
+    private void publishGUIStatus(FileInfo fileInfo, long downloadedByteNum) {
+        fileInfo.downloadedByteNum = downloadedByteNum;
+        fileInfo.completeRatio.setRatioNum((double) fileInfo.downloadedByteNum / fileInfo.serverFileByteNum);
+        guiStatusPublisher.publish(fileInfo.guiStatusID, fileInfo.completeRatio.getCompleteRatio());
+    }
+
     /** DataSocket / String message, depending on parameter getDataSocket */
     private Object execFTPCommand(String cmd, String arg, boolean getDataSocket) throws DownloadException, IOException {
         String command = cmd + ' ' + arg;
@@ -156,35 +221,49 @@ public class Downloader implements StreamLogging {
         }
     }
 
-    /** REST must be executed right before RETR, without PASV in between */
+    /**
+     * REST must be executed right before RETR, without PASV in between.
+     *
+     * @return data socket, or {@code null} if the pre command is rejected.
+     */
     private DataSocket execFTPCommand(String cmd, String arg, String preSimpleCmd, String preSimpleArg)
             throws DownloadException, IOException {
         String preSimpleCommand = preSimpleCmd + ' ' + preSimpleArg;
         String command = cmd + ' ' + arg;
         DataSocket dataSocket = controlSocket.execute(command, expectedStatusCodes.getStatusCode(cmd), preSimpleCommand);
         if (dataSocket == null) {
+            if (controlSocket.getStatusCode() != expectedStatusCodes.getStatusCode(preSimpleCmd))
+                return null;
             throw new FTPCommandFailedException(cmd, arg, null);
         }
 
         return dataSocket;
     }
 
-    private String execFTPCommand(String cmd, String arg, String groupedRegex, int regexGroupIndex)
+    private String execFTPCommand(String cmd, String arg, Pattern groupedRegex, int regexGroupIndex)
             throws DownloadException, IOException {
         String statusMessage = (String) execFTPCommand(cmd, arg, false);
-        Pattern pattern = Pattern.compile(groupedRegex);
-        Matcher matcher = pattern.matcher(statusMessage);
+        Matcher matcher = groupedRegex.matcher(statusMessage);
         if (matcher.matches()) {
             return matcher.group(regexGroupIndex);
         } else {
-            throw new ParseStatusMessageFailed(statusMessage, groupedRegex, regexGroupIndex);
+            throw new ParseStatusMessageFailed(statusMessage, groupedRegex.pattern(), regexGroupIndex);
         }
     }
 
     private long getServerFileSize(String serverFileName, FTPPath serverPath) throws DownloadException, IOException {
         long serverFileByteNum = 0;
+        ServerFeatures serverFeatures = controlSocket.getServerFeatures();
+        if (serverFeatures != null && !serverFeatures.supportsSIZE()) {
+            // MLST, or listing of parent directory
+            FTPPath stat = ftpClient.stat(serverPath.getPath());
+            if (stat == null || stat.isDirectory() || stat.getSize() < 0) {
+                throw new ServerFileNotExistsException(serverPath);
+            }
+            return stat.getSize();
+        }
 
-        String ret = execFTPCommand("SIZE", serverFileName, "(\\d+)(\\s)(\\d+)(\\s+)", 3);
+        String ret = execFTPCommand("SIZE", serverFileName, SIZE_REPLY, 3);
         serverFileByteNum = ret.equals("0") ? -1 : Long.parseLong(ret);
         if (serverFileByteNum == -1) {
             throw new ServerFileNotExistsException(serverPath);
@@ -193,22 +272,49 @@ public class Downloader implements StreamLogging {
         return serverFileByteNum;
     }
 
-    /** check existence and get size of remote file */
+    /**
+     * check existence and get size of remote file, by absolute path if possible.
+     * SIZE is skipped if the size is known from listing, except the first
+     * time an absolute path is used, which tells whether the server takes it.
+     */
     private void checkRemoteFile(FTPPath remotePath, FileInfo fileInfo)
             throws DownloadException, IOException {
-        // change working dir
-        if (remotePath.getName().contains(" ")) {
-            fileInfo.serverFileName = "\"" + remotePath.getName() + "\"";
-        } else {
-            fileInfo.serverFileName = remotePath.getName();
-        }
         fileInfo.serverFileDir = parseDirFromString(remotePath.getPath(), new DirSeparator(DirSeparatorModes.FTP));
+        boolean isSizeKnown = remotePath.getSize() >= 0;
+        if (Configuration.ControlSocketConf.absolutePathTransfer && !isAbsolutePathRejected) {
+            fileInfo.serverFileName = remotePath.getPath();
+            if (isSizeKnown && isAbsolutePathAccepted) {
+                fileInfo.serverFileByteNum = remotePath.getSize();
+                fileInfo.isSizeFromListing = true;
+                return;
+            }
+            try {
+                fileInfo.serverFileByteNum = getServerFileSize(fileInfo.serverFileName, remotePath);
+                isAbsolutePathAccepted = true;
+                return;
+            } catch (FTPCommandFailedException | ServerFileNotExistsException e) {
+                // either missing, or the server rejects absolute paths; CWD tells which
+                isSizeKnown = false;
+            }
+        }
+
+        // change working dir
+        fileInfo.serverFileName = remotePath.getName();
         if (!ftpClient.getWorkingDirectory().equals(fileInfo.serverFileDir)) {
             ftpClient.changeWorkingDirectory(fileInfo.serverFileDir);
         }
+        if (isSizeKnown) {
+            fileInfo.serverFileByteNum = remotePath.getSize();
+            fileInfo.isSizeFromListing = true;
+            return;
+        }
 
         // check if remote file exists and get SIZE
         fileInfo.serverFileByteNum = getServerFileSize(fileInfo.serverFileName, remotePath);
+        if (Configuration.ControlSocketConf.absolutePathTransfer && !isAbsolutePathRejected) {
+            logger.info("Absolute path rejected, falling back to CWD: " + remotePath.getPath());
+            isAbsolutePathRejected = true;
+        }
     }
 
     /** check if local path available to save and collect related info */
@@ -229,8 +335,12 @@ public class Downloader implements StreamLogging {
 
         // check if enough local space and downloaded before
         File downloadedFile = new File(localPath + ".ftpdownloading");
+        File segmentState = new File(localPath + SegmentedDownloader.STATE_SUFFIX);
         fileInfo.downloadedByteNum = 0;
-        if (downloadedFile.exists()) {
+        if (segmentState.exists()) {
+            // preallocated by segmented download, its length is not what have been downloaded
+            segmentState.delete();
+        } else if (downloadedFile.exists()) {
             fileInfo.downloadedByteNum = downloadedFile.length();
         }
         long restByteNum = fileInfo.serverFileByteNum - fileInfo.downloadedByteNum;
@@ -315,6 +425,7 @@ class FileInfo {
     public String localFileDir;
     public String localFilePath;
     public long serverFileByteNum;
+    public boolean isSizeFromListing;
     public long downloadedByteNum;
     public int guiStatusID;
     public CompleteRatio completeRatio = new CompleteRatio();
@@ -0,0 +1,123 @@
+package ftp.downloader;
+
+import ftp.client.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Download a remote directory tree over several pooled connections. The
+ * calling connection crawls the tree with {@link RemoteTreeCrawler} and
+ * feeds files into a work queue, while the other connections drain it
+ * concurrently; the crawler joins them once the crawl is over. Local
+ * directories are created by the crawler only, so a directory always
+ * exists before anything inside it.
+ * Files are published as one aggregated status for the whole tree.
+ */
+public class ParallelDirectoryDownloader implements StreamLogging {
+    private final ControlSocket controlSocket;
+    private final FTPClientImpl ftpClient;
+    private final StatusPublisher guiStatusPublisher;
+    private final BlockingQueue<FileJob> fileJobs = new LinkedBlockingQueue<>();
+    private final AtomicInteger foundNum = new AtomicInteger();
+    private final AtomicInteger doneNum = new AtomicInteger();
+    private final AtomicInteger failedNum = new AtomicInteger();
+    private volatile boolean crawlFinished;
+    private int guiStatusID;
+
+    public ParallelDirectoryDownloader(ControlSocket controlSocket, FTPClientImpl ftpClient,
+                                       StatusPublisher guiStatusPublisher) {
+        this.controlSocket = controlSocket;
+        this.ftpClient = ftpClient;
+        this.guiStatusPublisher = guiStatusPublisher;
+    }
+
+    /**
+     * Download {@code downloadFrom} into {@code saveTo} with at most
+     * {@link Configuration.DownloaderConf#directoryParallelism} connections.
+     */
+    public void downloadDirectory(FTPPath downloadFrom, String saveTo) throws DownloadException, IOException {
+        guiStatusID = guiStatusPublisher.initialize(saveTo, downloadFrom.getPath(),
+                StatusPublisher.DIRECTION.DOWNLOAD, "-");
+        ftpClient.runOnPooledConnections(Configuration.DownloaderConf.directoryParallelism,
+                (workerControlSocket, workerClient) -> {
+                    if (workerClient == ftpClient) {
+                        try {
+                            crawl(downloadFrom, saveTo);
+                        } finally {
+                            crawlFinished = true;
+                        }
+                    }
+                    drain(workerControlSocket, workerClient);
+                });
+        logger.info(String.format("Downloaded %s: %d file(s), %d failed",
+                downloadFrom.getPath(), doneNum.get(), failedNum.get()));
+        guiStatusPublisher.publish(guiStatusID, failedNum.get() == 0 ? "完成"
+                : String.format("完成 (%d failed)", failedNum.get()));
+    }
+
+    /** crawl the tree in parallel, creating local directories and queueing files as they are found */
+    private void crawl(FTPPath root, String saveTo) throws DownloadException, IOException {
+        File rootDir = new File(saveTo);
+        if (!rootDir.exists() && !rootDir.mkdir()) {
+            throw new CreateSaveDirFailed(saveTo);
+        }
+        String rootPath = root.getPath().endsWith("/") ? root.getPath() : root.getPath() + "/";
+        String localRoot = saveTo.endsWith(File.separator) ? saveTo : saveTo + File.separator;
+        // a directory is always emitted before its entries, so its parent exists by then
+        RemoteTreeCrawler.Summary summary = new RemoteTreeCrawler(ftpClient).crawl(rootPath, subPath -> {
+            String subSavePath = localRoot + subPath.getPath().substring(rootPath.length())
+                    .replace('/', File.separatorChar);
+            if (subPath.isDirectory()) {
+                File localDir = new File(subSavePath);
+                if (!localDir.exists() && !localDir.mkdir()) {
+                    logger.warning("Failed to create " + subSavePath);
+                }
+            } else {
+                foundNum.incrementAndGet();
+                fileJobs.add(new FileJob(subPath, subSavePath));
+                publishGUIStatus();
+            }
+        });
+        failedNum.addAndGet((int) summary.getFailedDirectoryNum());
+    }
+
+    /** download queued files until the crawl is over and nothing is left */
+    private void drain(ControlSocket workerControlSocket, FTPClient workerClient) throws InterruptedException {
+        Downloader downloader = new Downloader(workerControlSocket, workerClient, StatusPublisher.SILENT);
+        while (!Thread.currentThread().isInterrupted()) {
+            FileJob job = fileJobs.poll(100, TimeUnit.MILLISECONDS);
+            if (job == null) {
+                if (crawlFinished && fileJobs.isEmpty())
+                    break;
+                continue;
+            }
+            try {
+                downloader.downloadFileOrDirectory(job.remotePath, job.saveTo);
+            } catch (DownloadException | IOException e) {
+                failedNum.incrementAndGet();
+                logger.warning("Failed to download " + job.remotePath.getPath() + ": " + e);
+            }
+            doneNum.incrementAndGet();
+            publishGUIStatus();
+        }
+    }
+
+    private void publishGUIStatus() {
+        guiStatusPublisher.publish(guiStatusID, String.format("%d/%d", doneNum.get(), foundNum.get()));
+    }
+}
+
+class FileJob {
+    final FTPPath remotePath;
+    final String saveTo;
+
+    FileJob(FTPPath remotePath, String saveTo) {
+        this.remotePath = remotePath;
+        this.saveTo = saveTo;
+    }
+}
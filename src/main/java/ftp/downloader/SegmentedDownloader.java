@@ -0,0 +1,241 @@
+package ftp.downloader;
+
+import ftp.client.*;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Download a single large file over several pooled connections at once.
+ * The file is split by SIZE into disjoint segments, each fetched with
+ * REST + RETR and written at its own offset of the preallocated
+ * ".ftpdownloading" file. A segment's RETR is aborted by closing the data
+ * socket once its end offset is reached. Progress of every segment is kept
+ * in ".ftpsegments" next to it, so an interrupted download resumes each
+ * segment where it stopped. A failed segment is retried once, from where
+ * it stopped, before the whole download fails.
+ * <p>The file is addressed as {@link Downloader} does: by absolute path
+ * if {@link Configuration.ControlSocketConf#absolutePathTransfer} is set
+ * and the server takes it, otherwise by name after CWD on every
+ * connection.</p>
+ */
+public class SegmentedDownloader implements StreamLogging {
+    static final String STATE_SUFFIX = ".ftpsegments";
+
+    private final ControlSocket controlSocket;
+    private final FTPClientImpl ftpClient;
+    private final StatusPublisher guiStatusPublisher;
+    private Segment[] segments;
+    private File stateFile;
+    private long serverFileByteNum;
+    private int guiStatusID;
+    private final CompleteRatio completeRatio = new CompleteRatio();
+
+    public SegmentedDownloader(ControlSocket controlSocket, FTPClientImpl ftpClient,
+                               StatusPublisher guiStatusPublisher) {
+        this.controlSocket = controlSocket;
+        this.ftpClient = ftpClient;
+        this.guiStatusPublisher = guiStatusPublisher;
+    }
+
+    /**
+     * Download {@code downloadFrom} in segments, or on this connection only
+     * if it is smaller than {@link Configuration.DownloaderConf#segmentThreshold}
+     * or the server doesn't advertise REST STREAM. The size is asked
+     * afresh, by SIZE or else {@link FTPClientImpl#stat(String)}.
+     */
+    public void downloadFile(FTPPath downloadFrom, String saveTo) throws DownloadException, IOException {
+        String serverFileDir = Downloader.parseDirFromString(downloadFrom.getPath(),
+                new DirSeparator(DirSeparatorModes.FTP));
+        // existence, size and the name to send, decided as for a single-stream download
+        Downloader downloader = new Downloader(controlSocket, ftpClient, guiStatusPublisher);
+        FileInfo remoteFile = downloader.checkRemoteFile(new FTPPath(serverFileDir, downloadFrom.getName(), -1));
+        serverFileByteNum = remoteFile.serverFileByteNum;
+        String serverFileName = remoteFile.serverFileName;
+        boolean isRelative = !serverFileName.equals(downloadFrom.getPath());
+
+        int segmentNum = Configuration.DownloaderConf.segmentsPerFile;
+        // every segment but the first starts with REST
+        ServerFeatures serverFeatures = controlSocket.getServerFeatures();
+        boolean restSupported = serverFeatures == null || serverFeatures.supportsRESTStream();
+        if (segmentNum < 2 || !restSupported || serverFileByteNum < Configuration.DownloaderConf.segmentThreshold) {
+            if (!restSupported && segmentNum >= 2) {
+                logger.info("REST not supported, downloading on a single connection: " + downloadFrom.getPath());
+            }
+            // size is known by now, no need to ask again
+            downloader.downloadFileOrDirectory(
+                    new FTPPath(serverFileDir, downloadFrom.getName(), serverFileByteNum), saveTo);
+            return;
+        }
+
+        File localFile = new File(saveTo);
+        if (localFile.exists()) {
+            throw new LocalPathOccupiedException(saveTo);
+        }
+        File saveDir = localFile.getAbsoluteFile().getParentFile();
+        if (!saveDir.exists()) {
+            throw new SaveDirNotExistsException(saveDir.getPath());
+        }
+
+        File tempFile = new File(saveTo + ".ftpdownloading");
+        stateFile = new File(saveTo + STATE_SUFFIX);
+        segments = loadSegments(segmentNum);
+        if (!tempFile.exists() || tempFile.length() != serverFileByteNum) {
+            long availableByteNum = saveDir.getUsableSpace();
+            if (serverFileByteNum >= availableByteNum) {
+                throw new NoEnoughSpaceException(saveTo, serverFileByteNum, availableByteNum);
+            }
+        }
+        try (RandomAccessFile preallocated = new RandomAccessFile(tempFile, "rw")) {
+            preallocated.setLength(serverFileByteNum);
+        }
+        saveSegments();
+
+        guiStatusID = guiStatusPublisher.initialize(saveTo, downloadFrom.getPath(),
+                StatusPublisher.DIRECTION.DOWNLOAD, Downloader.getSize(serverFileByteNum));
+        publishGUIStatus();
+
+        Queue<Segment> pending = new ConcurrentLinkedQueue<>();
+        for (Segment segment : segments) {
+            if (!segment.isFinished()) {
+                pending.add(segment);
+            }
+        }
+        logger.info(String.format("Downloading %s in %d segment(s), %d left",
+                downloadFrom.getPath(), segments.length, pending.size()));
+        try (FileChannel tempFileChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            ftpClient.runOnPooledConnections(pending.size(), (segmentControlSocket, segmentClient) -> {
+                if (isRelative && !segmentClient.changeWorkingDirectory(serverFileDir)) {
+                    throw new IOException("Failed to change working directory to " + serverFileDir);
+                }
+                Segment segment;
+                while ((segment = pending.poll()) != null && !Thread.currentThread().isInterrupted()) {
+                    try {
+                        fetchSegment(segmentControlSocket, serverFileName, tempFileChannel, segment);
+                    } catch (IOException e) {
+                        if (segment.isRetried || Thread.currentThread().isInterrupted()) {
+                            throw e;
+                        }
+                        logger.warning(String.format("Segment %d-%d failed at %d, retrying: %s",
+                                segment.start, segment.end, segment.position, e.getMessage()));
+                        segment.isRetried = true;
+                        pending.add(segment);
+                    }
+                }
+            });
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            return; // kept for resuming
+        }
+        for (Segment segment : segments) {
+            if (!segment.isFinished()) {
+                throw new FTPCommandFailedException("RETR", serverFileName, null);
+            }
+        }
+        Files.move(tempFile.toPath(), Paths.get(saveTo));
+        stateFile.delete();
+        guiStatusPublisher.publish(guiStatusID, "完成");
+    }
+
+    /** REST -> RETR, receive until segment end, then close data socket to abort the rest */
+    private void fetchSegment(ControlSocket segmentControlSocket, String serverFileName,
+                              FileChannel tempFileChannel, Segment segment) throws IOException {
+        DataSocket dataSocket = segmentControlSocket.execute("RETR " + serverFileName, 150,
+                "REST " + segment.position);
+        if (dataSocket == null) {
+            // a rejected REST fails the segment rather than fetching from byte 0 into it
+            throw new IOException("Failed to fetch " + serverFileName + " from " + segment.position
+                    + ": " + segmentControlSocket.getMessage().trim());
+        }
+        try {
+            dataSocket.receiveTo(tempFileChannel, segment.position, segment.end, position -> {
+                segment.position = position;
+                saveSegments();
+                publishGUIStatus();
+            });
+        } finally {
+            // server replies 426 if aborted before its end of file, or 226 otherwise
+            dataSocket.close();
+        }
+    }
+
+    private void publishGUIStatus() {
+        long downloadedByteNum = 0;
+        for (Segment segment : segments) {
+            downloadedByteNum += segment.position - segment.start;
+        }
+        synchronized (completeRatio) {
+            completeRatio.setRatioNum((double) downloadedByteNum / serverFileByteNum);
+            guiStatusPublisher.publish(guiStatusID, completeRatio.getCompleteRatio());
+        }
+    }
+
+    /** resume state if it describes the same file size, or split anew */
+    private Segment[] loadSegments(int segmentNum) throws IOException {
+        if (stateFile.exists()) {
+            List<Segment> loaded = new ArrayList<>();
+            try (BufferedReader in = new BufferedReader(new FileReader(stateFile))) {
+                if (Long.parseLong(in.readLine().trim()) == serverFileByteNum) {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        String[] fields = line.trim().split(" ");
+                        Segment segment = new Segment(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+                        segment.position = Long.parseLong(fields[2]);
+                        loaded.add(segment);
+                    }
+                }
+            } catch (NullPointerException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                logger.warning("Broken segment state, starting over: " + stateFile.getPath());
+                loaded.clear();
+            }
+            if (!loaded.isEmpty()) {
+                return loaded.toArray(new Segment[0]);
+            }
+        }
+
+        Segment[] ret = new Segment[segmentNum];
+        long segmentByteNum = serverFileByteNum / segmentNum;
+        for (int i = 0; i < segmentNum; i++) {
+            ret[i] = new Segment(i * segmentByteNum,
+                    i + 1 == segmentNum ? serverFileByteNum : (i + 1) * segmentByteNum);
+        }
+        return ret;
+    }
+
+    private synchronized void saveSegments() {
+        try (PrintWriter out = new PrintWriter(new FileWriter(stateFile))) {
+            out.println(serverFileByteNum);
+            for (Segment segment : segments) {
+                out.println(segment.start + " " + segment.end + " " + segment.position);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to save segment state: " + e.getMessage());
+        }
+    }
+}
+
+class Segment {
+    final long start;
+    final long end;
+    volatile long position;
+    /** by the worker that polled it from the queue */
+    boolean isRetried;
+
+    Segment(long start, long end) {
+        this.start = start;
+        this.end = end;
+        this.position = start;
+    }
+
+    boolean isFinished() {
+        return position >= end;
+    }
+}
@@ -0,0 +1,188 @@
+package ftp.uploader;
+
+import ftp.client.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ParallelDirectoryUploader类:通过连接池并行上传整个目录
+三个阶段同时进行：
+1. 遍历线程按先序遍历本地目录树，把目录依次放入 dirJobs
+2. 调用者的连接按顺序创建远程目录，目录创建成功后把其中的文件放入 fileJobs
+3. 连接池中的连接并发上传 fileJobs 中的文件，调用者的连接在目录创建完后加入
+ */
+public class ParallelDirectoryUploader implements StreamLogging {
+    private static final DirJob END_OF_WALK = new DirJob(null, null, null);
+
+    private final FTPClientImpl ftpClient;
+    private final StatusPublisher publisher;
+    private final BlockingQueue<DirJob> dirJobs = new LinkedBlockingQueue<>();
+    private final BlockingQueue<UpLoadJob> fileJobs = new LinkedBlockingQueue<>();
+    private final AtomicInteger foundNum = new AtomicInteger();
+    private final AtomicInteger doneNum = new AtomicInteger();
+    private final AtomicInteger failedNum = new AtomicInteger();
+    private volatile boolean skeletonFinished;
+    private int id;
+
+    public ParallelDirectoryUploader(FTPClientImpl ftpClient, StatusPublisher publisher) {
+        this.ftpClient = ftpClient;
+        this.publisher = publisher;
+    }
+
+    /*
+    上传整个目录，最多使用 Configuration.UploaderConf.directoryParallelism 个连接
+     */
+    public UpLoadStatus UpLoadDirectory(Path local_path, FTPPath server_path, String serverDirectoryName)
+            throws IOException {
+        FTPPath serverRoot = new FTPPath(server_path.getPath(), serverDirectoryName);
+        if (!ftpClient.makeDirectory(serverRoot.getPath())) {
+            logger.info("CreateDirectoryFail");
+            return UpLoadStatus.CreateDirectoryFail;
+        }
+
+        id = publisher.initialize(local_path.toString(), serverRoot.getPath(),
+                StatusPublisher.DIRECTION.UPLOAD, "-");
+        Thread walker = new Thread(() -> walk(local_path, serverRoot));
+        walker.setDaemon(true);
+        walker.start();
+
+        try {
+            ftpClient.runOnPooledConnections(Configuration.UploaderConf.directoryParallelism,
+                    (workerControlSocket, workerClient) -> {
+                        if (workerClient == ftpClient) {
+                            try {
+                                buildSkeleton();
+                            } finally {
+                                skeletonFinished = true;
+                            }
+                        }
+                        UpLoader upLoader = new UpLoader(workerClient, workerControlSocket, StatusPublisher.SILENT);
+                        upLoader.setListParentDirectory(true);
+                        drain(upLoader);
+                    });
+        } finally {
+            walker.interrupt();
+        }
+
+        logger.info(String.format("UpLoadDirectoryFinish: %d file(s), %d failed", doneNum.get(), failedNum.get()));
+        publisher.publish(id, failedNum.get() == 0 ? "完成" : String.format("完成 (%d failed)", failedNum.get()));
+        return UpLoadStatus.UpLoadDirectoryFinish;
+    }
+
+    /*
+    阶段1：先序遍历本地目录树，父目录总在子目录之前
+     */
+    private void walk(Path local_path, FTPPath serverRoot) {
+        try {
+            Files.walkFileTree(local_path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    List<File> files = new ArrayList<>();
+                    File[] children = dir.toFile().listFiles();
+                    if (children != null) {
+                        for (File child : children) {
+                            if (child.isFile()) {
+                                files.add(child);
+                            }
+                        }
+                    }
+                    String relative = local_path.relativize(dir).toString().replace(File.separatorChar, '/');
+                    String serverDir = relative.isEmpty() ? serverRoot.getPath() : serverRoot.getPath() + "/" + relative;
+                    dirJobs.add(new DirJob(dir, serverDir, files));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warning("Failed to walk " + local_path + ": " + e.getMessage());
+        } finally {
+            dirJobs.add(END_OF_WALK);
+        }
+    }
+
+    /*
+    阶段2：按顺序创建远程目录，根目录已在开始时创建
+     */
+    private void buildSkeleton() throws IOException, InterruptedException {
+        boolean isRoot = true;
+        DirJob dir;
+        while ((dir = dirJobs.take()) != END_OF_WALK) {
+            if (!isRoot && !ftpClient.makeDirectory(dir.serverDir)) {
+                logger.info("CreateDirectoryFail:" + dir.serverDir);
+                failedNum.addAndGet(dir.files.size());
+                continue;
+            }
+            isRoot = false;
+            FTPPath server_path = new FTPPath(dir.serverDir, "");
+            for (File file : dir.files) {
+                foundNum.incrementAndGet();
+                fileJobs.add(new UpLoadJob(file.toPath(), server_path, file.getName()));
+            }
+            publish();
+        }
+    }
+
+    /*
+    阶段3：上传队列中的文件，直到目录创建完毕且队列为空
+     */
+    private void drain(UpLoader upLoader) throws InterruptedException {
+        while (!Thread.currentThread().isInterrupted()) {
+            UpLoadJob job = fileJobs.poll(100, TimeUnit.MILLISECONDS);
+            if (job == null) {
+                if (skeletonFinished && fileJobs.isEmpty())
+                    break;
+                continue;
+            }
+            try {
+                UpLoadStatus status = upLoader.UpLoadFile(job.local_path, job.server_path, job.serverFileName);
+                if (status != UpLoadStatus.UploadNewFileSuccess && status != UpLoadStatus.UploadFromBreakSuccess) {
+                    failedNum.incrementAndGet();
+                }
+            } catch (Exception e) {
+                failedNum.incrementAndGet();
+                logger.warning("UpLoadFail:" + job.local_path + ": " + e.getMessage());
+            }
+            doneNum.incrementAndGet();
+            publish();
+        }
+    }
+
+    private void publish() {
+        publisher.publish(id, String.format("%d/%d", doneNum.get(), foundNum.get()));
+    }
+}
+
+class DirJob {
+    final Path local_path;
+    final String serverDir;
+    final List<File> files;
+
+    DirJob(Path local_path, String serverDir, List<File> files) {
+        this.local_path = local_path;
+        this.serverDir = serverDir;
+        this.files = files;
+    }
+}
+
+class UpLoadJob {
+    final Path local_path;
+    final FTPPath server_path;
+    final String serverFileName;
+
+    UpLoadJob(Path local_path, FTPPath server_path, String serverFileName) {
+        this.local_path = local_path;
+        this.server_path = server_path;
+        this.serverFileName = serverFileName;
+    }
+}
@@ -1,9 +1,14 @@
 package ftp.uploader;
 import java.io.*;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.text.NumberFormat;
+import java.util.HashMap;
+import java.util.Map;
 
 import ftp.client.*;
 
@@ -16,6 +21,9 @@ public class UpLoader implements StreamLogging {
     private int id;
     private StatusPublisher publisher;
     private boolean isAborted;
+    private boolean listParentDirectory;
+    private String listedDirectory;
+    private Map<String, FTPPath> listedFiles = new HashMap<>();
 
     NumberFormat nt = NumberFormat.getPercentInstance();
 
@@ -39,8 +47,13 @@ public class UpLoader implements StreamLogging {
 
         logger.info("UploadNewFileStart:" + localFile.getPath() + "-->" + server_path.getPath() + serverFileName);
 
-        //处理远程目录
-        if(server_path.isDirectory())
+        //处理远程目录：绝对路径模式下直接使用完整路径，不再切换目录
+        if(Configuration.ControlSocketConf.absolutePathTransfer)
+        {
+            String serverDir = server_path.isDirectory() ? server_path.getPath() : ftpClient.getWorkingDirectory();
+            serverFileName = new FTPPath(serverDir, serverFileName, 0).getPath();
+        }
+        else if(server_path.isDirectory())
         {
             if(!ftpClient.changeWorkingDirectory(server_path.getPath())) {
                 logger.info("Wrong Server Path");
@@ -48,18 +61,17 @@ public class UpLoader implements StreamLogging {
             }
         }
 
-        //检查远程是否存在文件
-        FTPPath[] files = ftpClient.list(serverFileName);
+        //检查远程是否存在文件，只使用控制连接
         //存在同名文件
-        if(files != null)
+        if(statServerFile(serverFileName) != null)
         {
             result = UpLoadStatus.FileExits;
             logger.info("FileExits");
             return result;
         }
 
-        files = ftpClient.list(serverFileName + ".uploading");
-        if(files == null)
+        FTPPath uploading = statServerFile(serverFileName + ".uploading");
+        if(uploading == null)
         {
             //初始化状态信息
             id = publisher.initialize(localFile.getPath(), server_path.getPath(), StatusPublisher.DIRECTION.UPLOAD, getSize(localFile.length()));
@@ -71,12 +83,19 @@ public class UpLoader implements StreamLogging {
         }
         else
         {
-            long serverFileSize = files[0].getSize();
-            long localFileSize = localFile.length();
-
-            //移动文件内读取指针，实现断点续传
-            id = publisher.initialize(localFile.getPath(), server_path.getPath(), StatusPublisher.DIRECTION.UPLOAD, getSize(localFile.length()));
-            result = Continue(serverFileName + ".uploading", localFile, serverFileSize);
+            long serverFileSize = getServerFileSize(uploading, serverFileName + ".uploading");
+            if(serverFileSize < 0)
+            {
+                //续传起点未知，按续传失败处理：删除后重新上传
+                logger.info("UploadingSizeUnknown");
+                result = UpLoadStatus.UploadFromBreakFail;
+            }
+            else
+            {
+                //移动文件内读取指针，实现断点续传
+                id = publisher.initialize(localFile.getPath(), server_path.getPath(), StatusPublisher.DIRECTION.UPLOAD, getSize(localFile.length()));
+                result = Continue(serverFileName + ".uploading", localFile, serverFileSize);
+            }
 
 
             //断点续传失败，重新上传
@@ -109,6 +128,58 @@ public class UpLoader implements StreamLogging {
     }
 
 
+    /*
+    目录上传时，同一目录下的文件共用一次父目录列表来查询远程文件，而不是逐个 MLST
+    列表只在一次目录上传中有效，开关变化时丢弃
+     */
+    void setListParentDirectory(boolean listParentDirectory) {
+        this.listParentDirectory = listParentDirectory;
+        listedDirectory = null;
+        listedFiles = new HashMap<>();
+    }
+
+    /*
+    查询远程文件：MLST（不支持时为 SIZE/MDTM），或父目录列表，文件不存在时返回 null
+     */
+    private FTPPath statServerFile(String serverFilePath) throws IOException {
+        if (!listParentDirectory) {
+            return ftpClient.stat(serverFilePath);
+        }
+        int slash = serverFilePath.lastIndexOf('/');
+        String serverDir = slash < 0 ? ftpClient.getWorkingDirectory()
+                : slash == 0 ? "/" : serverFilePath.substring(0, slash);
+        if (!serverDir.equals(listedDirectory)) {
+            //本上传器自己上传的文件不会再被查询，所以列表无需刷新
+            listedDirectory = serverDir;
+            listedFiles = new HashMap<>();
+            FTPPath[] files = ftpClient.list(serverDir);
+            if (files != null) {
+                for (FTPPath file : files) {
+                    listedFiles.put(file.getName(), file);
+                }
+            }
+        }
+        return listedFiles.get(serverFilePath.substring(slash + 1));
+    }
+
+    /*
+    未上传完的文件大小：MLST 或列表中没有 size 时用 SIZE 查询，仍未知时返回 -1
+     */
+    private long getServerFileSize(FTPPath uploading, String serverFilePath) throws IOException {
+        if (uploading.getSize() >= 0) {
+            return uploading.getSize();
+        }
+        controlSocket.execute("SIZE " + serverFilePath);
+        if (controlSocket.getStatusCode() == 213) {
+            try {
+                return Long.parseLong(controlSocket.getMessage().substring(4).trim());
+            } catch (NumberFormatException e) {
+                logger.warning("Malformed SIZE reply: " + controlSocket.getMessage().trim());
+            }
+        }
+        return -1;
+    }
+
     /*
     上传整个目录
     */
@@ -117,7 +188,19 @@ public class UpLoader implements StreamLogging {
         if (isAborted) {
             return UpLoadStatus.IsAborted;
         }
+        //最外层调用结束后恢复，之后的单文件上传不再使用过期的列表
+        if (listParentDirectory) {
+            return upLoadDirectoryListed(local_path, server_path, serverDirectoryName);
+        }
+        setListParentDirectory(true);
+        try {
+            return upLoadDirectoryListed(local_path, server_path, serverDirectoryName);
+        } finally {
+            setListParentDirectory(false);
+        }
+    }
 
+    private UpLoadStatus upLoadDirectoryListed(Path local_path, FTPPath server_path, String serverDirectoryName) throws IOException, SQLException {
         File fs = local_path.toFile();
 
         logger.info("UpLoadDirectory:" + fs.getPath() + "-->" + server_path.getPath());
@@ -165,6 +248,17 @@ public class UpLoader implements StreamLogging {
         boolean result;
 
         dataSocket = controlSocket.execute("STOR " + serverFileName, 150);
+        if (dataSocket == null) {
+            logger.info(UpLoadStatus.UploadNewFileFail.toString());
+            return UpLoadStatus.UploadNewFileFail;
+        }
+
+        if (Configuration.DataSocketConf.zeroCopy) {
+            status = sendByChannel(localFile, 0)
+                    ? UpLoadStatus.UploadNewFileSuccess : UpLoadStatus.UploadNewFileFail;
+            logger.info(status.toString());
+            return status;
+        }
 
         RandomAccessFile raf = new RandomAccessFile(localFile, "r");
         BufferedOutputStream out = new BufferedOutputStream(dataSocket.getDataSocket().getOutputStream());
@@ -219,8 +313,10 @@ public class UpLoader implements StreamLogging {
         if(!dataSocket.isClosed()) {
             dataSocket.close();
         }
+        //关闭数据连接时已读到传输的结果，451/552等表示服务器上的文件不完整
+        boolean transferred = controlSocket.getStatusCode() / 100 == 2;
 
-        if(process < 1)
+        if(process < 1 || !transferred)
         {
             result = false;
         }
@@ -250,6 +346,16 @@ public class UpLoader implements StreamLogging {
         logger.info("UploadFromBreakStart:" + localFile.getPath());
 
         dataSocket = controlSocket.execute("APPE " + serverFileName, 150);
+        if (dataSocket == null) {
+            return UpLoadStatus.UploadFromBreakFail;
+        }
+
+        if (Configuration.DataSocketConf.zeroCopy) {
+            status = sendByChannel(localFile, serverSize)
+                    ? UpLoadStatus.UploadFromBreakSuccess : UpLoadStatus.UploadFromBreakFail;
+            logger.info(status.toString());
+            return status;
+        }
 
         RandomAccessFile raf = new RandomAccessFile(localFile, "r");
         BufferedOutputStream out = new BufferedOutputStream(dataSocket.getDataSocket().getOutputStream());
@@ -263,6 +369,9 @@ public class UpLoader implements StreamLogging {
 
         if(serverSize == step)
         {
+            //数据连接必须关闭，否则控制连接会一直等待传输结束
+            raf.close();
+            dataSocket.close();
             return UpLoadStatus.UploadFromBreakSuccess;
         }
 
@@ -301,9 +410,11 @@ public class UpLoader implements StreamLogging {
         if(!dataSocket.isClosed()) {
             dataSocket.close();
         }
+        //关闭数据连接时已读到传输的结果，451/552等表示服务器上的文件不完整
+        boolean transferred = controlSocket.getStatusCode() / 100 == 2;
 
 
-        if(process < 1)
+        if(process < 1 || !transferred)
         {
             result = false;
         }
@@ -320,6 +431,42 @@ public class UpLoader implements StreamLogging {
         return status;
     }
 
+    /*
+    零拷贝上传：FileChannel.transferTo 直接写入数据连接，position 为 APPE 续传的起点
+     */
+    private boolean sendByChannel(File localFile, long position) throws IOException {
+        long size = localFile.length();
+        nt.setMaximumFractionDigits(2);
+
+        try (FileChannel fileChannel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ)) {
+            position = dataSocket.sendFrom(fileChannel, position,
+                    pos -> publisher.publish(id, nt.format((double) pos / size)));
+        } catch (ClosedByInterruptException e) {
+            //传输被中断，通道已被关闭
+            Thread.currentThread().interrupt();
+        } finally {
+            dataSocket.close();
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            isAborted = true;
+            publisher.publish(id, "完成");
+            return false;
+        }
+
+        logger.info("UpLoadStatus:" + nt.format(size == 0 ? 1 : (double) position / size));
+        if (position < size) {
+            return false;
+        }
+        //关闭数据连接时已读到传输的结果，451/552等表示服务器上的文件不完整，不能改名
+        if (controlSocket.getStatusCode() / 100 != 2) {
+            logger.warning("Upload rejected: " + controlSocket.getMessage().trim());
+            return false;
+        }
+        publisher.publish(id, "完成");
+        return true;
+    }
+
     /*
     将文件大小转换为字符串形式输出
     */
@@ -0,0 +1,104 @@
+package ftp.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ControlSessionTest {
+    private ServerSocket server;
+    private Thread serverThread;
+    /** released to let the server answer SLOW */
+    private final CountDownLatch slowReply = new CountDownLatch(1);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new ServerSocket(0);
+        serverThread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream out = socket.getOutputStream();
+                out.write("220 ready\r\n".getBytes(StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.equals("SLOW")) {
+                        slowReply.await();
+                        out.write("200 slow done\r\n".getBytes(StandardCharsets.UTF_8));
+                    } else if (line.equals("PWD")) {
+                        out.write("257 \"/\"\r\n".getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        out.write("502 not implemented\r\n".getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            } catch (IOException | InterruptedException ignored) {
+            }
+        });
+        serverThread.start();
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        slowReply.countDown();
+        server.close();
+        serverThread.join(5000);
+    }
+
+    @Test
+    void interruptedReaderKeepsRepliesInOrder() throws Exception {
+        ControlSession session = new ControlChannelEngine(1).connect("127.0.0.1", server.getLocalPort());
+        assertEquals(220, ControlSession.await(session.nextReply()).getStatusCode());
+
+        AtomicReference<Object> slow = new AtomicReference<>();
+        AtomicBoolean interruptKept = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            try {
+                slow.set(ControlSession.await(session.execute("SLOW")));
+            } catch (IOException e) {
+                slow.set(e);
+            }
+            interruptKept.set(Thread.currentThread().isInterrupted());
+        });
+        reader.start();
+        TimeUnit.MILLISECONDS.sleep(200);
+        reader.interrupt();
+        TimeUnit.MILLISECONDS.sleep(200);
+        slowReply.countDown();
+        reader.join(5000);
+
+        assertTrue(slow.get() instanceof Reply, "reader got " + slow.get());
+        assertEquals(200, ((Reply) slow.get()).getStatusCode());
+        assertTrue(interruptKept.get(), "interrupt status lost");
+        assertEquals(257, ControlSession.await(session.execute("PWD")).getStatusCode());
+        session.close();
+    }
+
+    @Test
+    void alreadyInterruptedReaderGetsItsOwnReply() throws Exception {
+        ControlSession session = new ControlChannelEngine(1).connect("127.0.0.1", server.getLocalPort());
+        assertEquals(220, ControlSession.await(session.nextReply()).getStatusCode());
+        slowReply.countDown();
+
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(200, ControlSession.await(session.execute("SLOW")).getStatusCode());
+        } finally {
+            assertTrue(Thread.interrupted(), "interrupt status lost");
+        }
+        assertEquals(257, ControlSession.await(session.execute("PWD")).getStatusCode());
+        session.close();
+    }
+}
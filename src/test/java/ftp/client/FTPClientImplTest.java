@@ -0,0 +1,32 @@
+package ftp.client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FTPClientImplTest {
+
+    @Test
+    void normalizePath() {
+        assertEquals("/", FTPClientImpl.normalizePath("/"));
+        assertEquals("/", FTPClientImpl.normalizePath("//"));
+        assertEquals("/a/c", FTPClientImpl.normalizePath("/a//b/../c/"));
+        assertEquals("/a", FTPClientImpl.normalizePath("/./a/."));
+        assertEquals("/", FTPClientImpl.normalizePath("/a/../.."));
+        assertEquals("/b", FTPClientImpl.normalizePath("/../../b"));
+        assertEquals("/a/...", FTPClientImpl.normalizePath("/a/..."));
+        assertEquals("/a/my dir", FTPClientImpl.normalizePath("/a/my dir/"));
+    }
+
+    @Test
+    void resolvePath() {
+        assertEquals("/home/u/f.txt", FTPClientImpl.resolvePath("/home/u", "f.txt"));
+        assertEquals("/home/f.txt", FTPClientImpl.resolvePath("/home/u", "../f.txt"));
+        assertEquals("/home/u", FTPClientImpl.resolvePath("/home/u", "."));
+        assertEquals("/home/u/sub", FTPClientImpl.resolvePath("/home/u/", "sub/"));
+        assertEquals("/sub", FTPClientImpl.resolvePath("/", "sub"));
+        assertEquals("/", FTPClientImpl.resolvePath("/", ".."));
+        assertEquals("/etc", FTPClientImpl.resolvePath("/home/u", "/etc/"));
+        assertEquals("/home/u", FTPClientImpl.resolvePath("/home/u", ""));
+    }
+}
@@ -0,0 +1,129 @@
+package ftp.client;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FTPPath#parseFromMLSD(String, String)} against the split-based
+ * parser it replaced, over a synthetic MLSD listing of a million lines.
+ * Facts come in a different order on every line, one entry in ten is a
+ * directory. Sizes stay below 2 GB, which the old parser can't read.
+ * <p>Run with the test classpath, "-prof gc" for allocation per entry:</p>
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *     -Dexec.args="-cp %classpath org.openjdk.jmh.Main FTPPathBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FTPPathBenchmark {
+    private static final DateTimeFormatter modifyFormatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    @Param("1000000")
+    public int lineNum;
+
+    private String[] listing;
+
+    @Setup
+    public void generateListing() {
+        Random random = new Random(42);
+        listing = new String[lineNum];
+        for (int i = 0; i < lineNum; i++) {
+            boolean isDirectory = i % 10 == 0;
+            String[] facts = {
+                    "type=" + (isDirectory ? "dir" : "file"),
+                    "size=" + (isDirectory ? 4096 : random.nextInt(Integer.MAX_VALUE)),
+                    String.format("modify=%04d%02d%02d%02d%02d%02d.%03d", 2000 + random.nextInt(25),
+                            1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24),
+                            random.nextInt(60), random.nextInt(60), random.nextInt(1000)),
+                    i % 3 == 0 ? "perm=" + (isDirectory ? "elcmp" : "rwadf") : "UNIX.mode=0644",
+                    "UNIX.owner=ftp"
+            };
+            StringBuilder line = new StringBuilder();
+            for (int j = 0; j < facts.length; j++)
+                line.append(facts[(i + j) % facts.length]).append(';');
+            listing[i] = line.append(" entry-").append(i).append(isDirectory ? "" : ".dat").toString();
+        }
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole blackhole) {
+        for (String line : listing)
+            blackhole.consume(FTPPath.parseFromMLSD("/bench", line));
+    }
+
+    @Benchmark
+    public void split(Blackhole blackhole) {
+        for (String line : listing)
+            parseBySplit("/bench", line, blackhole);
+    }
+
+    /**
+     * Former {@link FTPPath#parseFromMLSD(String, String)}: facts split by
+     * ";" and "=", numbers parsed from substrings, time through java.time.
+     * Permission bits go to {@code blackhole} as FTPPath has no setters.
+     */
+    private static void parseBySplit(String dir, String info, Blackhole blackhole) {
+        int nameStart = info.indexOf(' ');
+        if (nameStart < 0)
+            return;
+        String type = null, perm = null, mode = null, modify = null, size = null;
+        for (String fact : info.substring(0, nameStart).split(";")) {
+            int eq = fact.indexOf('=');
+            if (eq < 0)
+                continue;
+            String value = fact.substring(eq + 1);
+            switch (fact.substring(0, eq).toLowerCase()) {
+                case "type":
+                    type = value.toLowerCase();
+                    break;
+                case "perm":
+                    perm = value.toLowerCase();
+                    break;
+                case "unix.mode":
+                    mode = value;
+                    break;
+                case "modify":
+                    modify = value;
+                    break;
+                case "size":
+                    size = value;
+                    break;
+            }
+        }
+        if ("cdir".equals(type) || "pdir".equals(type))
+            return;
+
+        String name = info.substring(nameStart + 1);
+        boolean isDirectory = "dir".equals(type);
+        FTPPath path = isDirectory ? new FTPPath(dir, name)
+                : new FTPPath(dir, name, size == null ? 0 : Integer.parseInt(size));
+        if (mode != null) {
+            int owner = Integer.parseInt(mode, 8) >> 6;
+            blackhole.consume((owner & 4) != 0);
+            blackhole.consume((owner & 2) != 0);
+        } else if (perm != null) {
+            blackhole.consume(isDirectory
+                    ? perm.indexOf('l') >= 0 || perm.indexOf('e') >= 0
+                    : perm.indexOf('r') >= 0);
+            blackhole.consume(isDirectory
+                    ? perm.indexOf('c') >= 0
+                    : perm.indexOf('w') >= 0 || perm.indexOf('a') >= 0);
+        }
+        if (modify != null && modify.length() >= 14) {
+            blackhole.consume(LocalDateTime.parse(modify.substring(0, 14), modifyFormatter)
+                    .toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+        blackhole.consume(path);
+    }
+}
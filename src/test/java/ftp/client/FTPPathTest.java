@@ -0,0 +1,122 @@
+package ftp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FTPPathTest {
+
+    @Test
+    void factsInAnyOrder() {
+        FTPPath sizeFirst = FTPPath.parseFromMLSD("/dir", "size=123;type=file;modify=20240102030405; a.txt");
+        FTPPath typeLast = FTPPath.parseFromMLSD("/dir", "Modify=20240102030405;SIZE=123;Type=File; a.txt");
+        for (FTPPath path : new FTPPath[]{sizeFirst, typeLast}) {
+            assertFalse(path.isDirectory());
+            assertEquals(123L, path.getSize());
+            assertEquals("a.txt", path.getName());
+            assertEquals("/dir/a.txt", path.getPath());
+            assertEquals(epochMillis(2024, 1, 2, 3, 4, 5, 0), path.getModifiedTime());
+        }
+    }
+
+    @Test
+    void sizeAbove2GB() {
+        FTPPath path = FTPPath.parseFromMLSD("/", "type=file;size=5000000000; big.iso");
+        assertEquals(5_000_000_000L, path.getSize());
+        assertEquals("/big.iso", path.getPath());
+    }
+
+    @Test
+    void modifyWithFraction() {
+        assertEquals(epochMillis(1999, 12, 31, 23, 59, 58, 670),
+                FTPPath.parseFromMLSD("/", "type=file;size=1;modify=19991231235958.67; f").getModifiedTime());
+        assertEquals(epochMillis(2024, 2, 29, 0, 0, 0, 5),
+                FTPPath.parseFromMLSD("/", "type=file;size=1;modify=20240229000000.005; f").getModifiedTime());
+        assertEquals(0L, FTPPath.parseFromMLSD("/", "type=file;size=1;modify=2024; f").getModifiedTime());
+    }
+
+    @Test
+    void nameWithSpacesAndSemicolons() {
+        FTPPath path = FTPPath.parseFromMLSD("/dir", "type=file;size=1; my file; v2.txt");
+        assertEquals("my file; v2.txt", path.getName());
+    }
+
+    @Test
+    void unixModeBeforePerm() {
+        FTPPath path = FTPPath.parseFromMLSD("/", "type=file;size=1;perm=rwadf;UNIX.mode=0444; f");
+        assertTrue(path.hasPermission());
+        assertTrue(path.isReadable());
+        assertFalse(path.isWritable());
+    }
+
+    @Test
+    void permOfFileAndDirectory() {
+        FTPPath file = FTPPath.parseFromMLSD("/", "type=file;size=1;perm=ra; f");
+        assertTrue(file.isReadable());
+        assertTrue(file.isWritable());
+        FTPPath dir = FTPPath.parseFromMLSD("/", "type=dir;perm=el; d");
+        assertTrue(dir.isDirectory());
+        assertTrue(dir.isReadable());
+        assertFalse(dir.isWritable());
+        FTPPath noPerm = FTPPath.parseFromMLSD("/", "type=file;size=1; f");
+        assertFalse(noPerm.hasPermission());
+    }
+
+    @Test
+    void directoryItselfAndParentSkipped() {
+        assertNull(FTPPath.parseFromMLSD("/dir", "type=cdir;modify=20240102030405; ."));
+        assertNull(FTPPath.parseFromMLSD("/dir", "type=pdir;modify=20240102030405; .."));
+        assertNull(FTPPath.parseFromMLSD("/dir", "malformed"));
+        FTPPath[] paths = FTPPath.parseFromMLSD("/dir", new String[]{
+                "type=cdir; .", "type=pdir; ..", "type=dir; sub", "type=file;size=2; f"});
+        assertEquals(2, paths.length);
+        assertEquals("sub", paths[0].getName());
+        assertTrue(paths[0].isDirectory());
+        assertEquals("f", paths[1].getName());
+    }
+
+    @Test
+    void sizeUnknownWithoutFact() {
+        assertEquals(-1L, FTPPath.parseFromMLSD("/", "type=file;modify=20240102030405; f").getSize());
+        assertEquals(-1L, FTPPath.parseFromMLSD("/", "type=file;size=12x; f").getSize());
+        assertEquals(-1L, FTPPath.parseFromMLSD("/", "type=file;size=; f").getSize());
+        assertEquals(0L, FTPPath.parseFromMLSD("/", "type=dir; d").getSize());
+        assertEquals(0L, FTPPath.parseFromMLSD("/", "type=file;size=0; empty").getSize());
+    }
+
+    @Test
+    void sizeFromLIST() {
+        FTPPath file = FTPPath.parseFromLIST("/dir", "-rw-r--r--    1 ftp  ftp  5000000000 Jan 01 00:00 big.iso");
+        assertEquals(5_000_000_000L, file.getSize());
+        assertEquals("/dir/big.iso", file.getPath());
+        assertTrue(file.isReadable());
+        assertTrue(file.isWritable());
+        FTPPath dir = FTPPath.parseFromLIST("/dir", "dr-xr-xr-x 2 ftp ftp 4096 Mar 3 2020 my docs");
+        assertTrue(dir.isDirectory());
+        assertEquals(0L, dir.getSize());
+        assertEquals("my docs", dir.getName());
+        assertFalse(dir.isWritable());
+        FTPPath link = FTPPath.parseFromLIST("/dir", "lrwxrwxrwx 1 ftp ftp 7 Jan 01 00:00 latest -> big.iso");
+        assertEquals("latest", link.getName());
+        assertEquals(7L, link.getSize());
+    }
+
+    @Test
+    void totalAndDotsSkippedInLIST() {
+        FTPPath[] paths = FTPPath.parseFromLIST("/dir", new String[]{
+                "total 8",
+                "drwxr-xr-x 2 ftp ftp 4096 Jan 01 00:00 .",
+                "drwxr-xr-x 3 ftp ftp 4096 Jan 01 00:00 ..",
+                "-rw-r--r-- 1 ftp ftp 2 Jan 01 00:00 f"});
+        assertEquals(1, paths.length);
+        assertEquals(2L, paths[0].getSize());
+    }
+
+    private static long epochMillis(int year, int month, int day, int hour, int minute, int second, int millis) {
+        return LocalDateTime.of(year, month, day, hour, minute, second, millis * 1_000_000)
+                .toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
@@ -0,0 +1,90 @@
+package ftp.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ListingCacheTest {
+    private final long timeToLive = Configuration.ListingCacheConf.timeToLive;
+    private final int maxEntries = Configuration.ListingCacheConf.maxEntries;
+    private final ListingCache cache = new ListingCache();
+
+    @AfterEach
+    void restoreConf() {
+        Configuration.ListingCacheConf.timeToLive = timeToLive;
+        Configuration.ListingCacheConf.maxEntries = maxEntries;
+    }
+
+    @Test
+    void expiresAfterTimeToLive() throws InterruptedException {
+        Configuration.ListingCacheConf.timeToLive = 100;
+        cache.put("/a", listing("/a", "f"));
+        assertNotNull(cache.get("/a"));
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertNull(cache.get("/a"));
+        assertNull(cache.get("/b"));
+
+        ListingCacheStats stats = cache.getStats();
+        assertEquals(1L, stats.getHits());
+        assertEquals(2L, stats.getMisses());
+        assertEquals(0, stats.getEntryNum());
+    }
+
+    @Test
+    void nothingCachedWithoutTimeToLive() {
+        Configuration.ListingCacheConf.timeToLive = 0;
+        cache.put("/a", listing("/a", "f"));
+        assertNull(cache.get("/a"));
+    }
+
+    @Test
+    void leastRecentlyUsedEvicted() {
+        Configuration.ListingCacheConf.maxEntries = 2;
+        cache.put("/a", listing("/a", "f"));
+        cache.put("/b", listing("/b", "f"));
+        assertNotNull(cache.get("/a"));
+        cache.put("/c", listing("/c", "f"));
+        assertNull(cache.get("/b"));
+        assertNotNull(cache.get("/a"));
+        assertNotNull(cache.get("/c"));
+    }
+
+    @Test
+    void invalidatesParentAndDescendants() {
+        for (String dir : new String[]{"/", "/a", "/a/b", "/a/b/c", "/a/b/c/d", "/a/bc", "/ab", "/x"})
+            cache.put(dir, listing(dir, "f"));
+        cache.invalidate("/a/b");
+        for (String dir : new String[]{"/a", "/a/b", "/a/b/c", "/a/b/c/d"})
+            assertNull(cache.get(dir), dir + " still cached");
+        for (String dir : new String[]{"/", "/a/bc", "/ab", "/x"})
+            assertNotNull(cache.get(dir), dir + " invalidated");
+
+        cache.invalidate("/x");
+        assertNull(cache.get("/x"));
+        assertNull(cache.get("/"));
+    }
+
+    @Test
+    void entriesCopiedInAndOut() {
+        FTPPath[] paths = listing("/a", "f");
+        cache.put("/a", paths);
+        paths[0].addPermission("----------");
+        FTPPath[] cached = cache.get("/a");
+        assertNotSame(paths[0], cached[0]);
+        assertTrue(cached[0].isReadable());
+
+        cached[0].addPermission("----------");
+        cached[0] = null;
+        FTPPath[] again = cache.get("/a");
+        assertNotNull(again[0]);
+        assertTrue(again[0].isReadable());
+        assertTrue(again[0].isWritable());
+    }
+
+    private static FTPPath[] listing(String dir, String name) {
+        return new FTPPath[]{FTPPath.parseFromMLSD(dir, "type=file;size=1;perm=rw; " + name)};
+    }
+}
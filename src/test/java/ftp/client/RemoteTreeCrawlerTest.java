@@ -0,0 +1,139 @@
+package ftp.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteTreeCrawlerTest {
+    private final int frontierCapacity = Configuration.RemoteTreeCrawlerConf.frontierCapacity;
+
+    /**
+     * MLSD listings by directory, 3 levels of 3 directories with 2 files
+     * each: one of 100 bytes, one without size fact. "/d1/d1" can't be
+     * listed, so nothing below it is seen.
+     */
+    private final Map<String, String[]> listings = new HashMap<>();
+
+    RemoteTreeCrawlerTest() {
+        addTree("/", 3);
+    }
+
+    private void addTree(String dir, int depth) {
+        List<String> lines = new ArrayList<>();
+        lines.add("type=cdir; .");
+        lines.add("type=file;size=100; sized");
+        lines.add("type=file;modify=20240102030405; unsized");
+        if (depth > 0) {
+            for (int i = 0; i < 3; i++) {
+                String name = "d" + i;
+                lines.add("type=dir; " + name);
+                addTree(new FTPPath(dir, name).getPath(), depth - 1);
+            }
+        }
+        listings.put(dir, lines.toArray(new String[0]));
+    }
+
+    @AfterEach
+    void restoreConf() {
+        Configuration.RemoteTreeCrawlerConf.frontierCapacity = frontierCapacity;
+    }
+
+    @Test
+    void totalsOfOneConnection() throws Exception {
+        checkTotals(1);
+    }
+
+    @Test
+    void totalsOfConnectionsSharingSmallFrontier() throws Exception {
+        // most directories overflow into the connection that found them
+        Configuration.RemoteTreeCrawlerConf.frontierCapacity = 1;
+        checkTotals(4);
+    }
+
+    @Test
+    void connectionFailureStopsCrawl() throws InterruptedException {
+        RemoteTreeCrawler.Walk walk = new RemoteTreeCrawler.Walk("/", path -> {});
+        FTPClient client = fakeClient(dir -> {
+            throw new IOException("connection reset");
+        });
+        assertThrows(IOException.class, () -> walk.drain(client));
+        assertTrue(walk.stopped);
+    }
+
+    private void checkTotals(int connectionNum) throws Exception {
+        Set<String> emitted = ConcurrentHashMap.newKeySet();
+        RemoteTreeCrawler.Walk walk = new RemoteTreeCrawler.Walk("/", path -> {
+            String parent = path.getPath().substring(0, path.getPath().lastIndexOf('/'));
+            assertTrue(parent.isEmpty() || emitted.contains(parent), "emitted before its directory: " + path.getPath());
+            assertTrue(emitted.add(path.getPath()), "emitted twice: " + path.getPath());
+        });
+        FTPClient client = fakeClient(dir -> {
+            if (dir.equals("/d1/d1"))
+                return null;
+            return listings.get(dir);
+        });
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < connectionNum; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    walk.drain(client);
+                } catch (Exception | AssertionError e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join(10000);
+        assertTrue(failures.isEmpty(), "failed: " + failures);
+
+        // 39 directories, "/d1/d1" and the 3 below it listed by nobody
+        assertEquals(39 - 3, walk.directoryNum.sum());
+        assertEquals(1L, walk.failedDirectoryNum.sum());
+        // 40 directories with 2 files each, root included, 4 of them not listed
+        assertEquals(2 * (40 - 4), walk.fileNum.sum());
+        assertEquals(100L * (40 - 4), walk.byteNum.sum());
+        assertEquals(0, walk.pendingDirNum.get());
+    }
+
+    /** lister gives the MLSD lines of a directory, or {@code null} if it can't be listed */
+    private interface Lister {
+        String[] list(String dir) throws IOException;
+    }
+
+    /** client whose only working method is {@link FTPClient#list(String, Consumer)} */
+    private static FTPClient fakeClient(Lister lister) {
+        return (FTPClient) Proxy.newProxyInstance(FTPClient.class.getClassLoader(), new Class<?>[]{FTPClient.class},
+                (proxy, method, args) -> {
+                    if (!method.getName().equals("list") || args == null || args.length != 2)
+                        throw new UnsupportedOperationException(method.getName());
+                    String dir = (String) args[0];
+                    String[] lines = lister.list(dir);
+                    if (lines == null)
+                        return false;
+                    @SuppressWarnings("unchecked")
+                    Consumer<FTPPath> consumer = (Consumer<FTPPath>) args[1];
+                    for (String line : lines) {
+                        FTPPath path = FTPPath.parseFromMLSD(dir, line);
+                        if (path != null)
+                            consumer.accept(path);
+                    }
+                    return true;
+                });
+    }
+}
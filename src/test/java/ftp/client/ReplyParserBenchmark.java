@@ -0,0 +1,98 @@
+package ftp.client;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ReplyParser} against the readLine-based parsing it replaced, on
+ * a stream of single-line or multi-line replies. Logging is left out of
+ * both. Parsing across chunk boundaries is covered by {@link ReplyParserTest}.
+ * <p>Run with the test classpath, "-prof gc" for allocation per reply:</p>
+ * <pre>
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *     -Dexec.args="-cp %classpath org.openjdk.jmh.Main ReplyParserBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplyParserBenchmark {
+    private static final int REPLY_NUM = 1000;
+    private static final String SINGLE_LINE = "226 Transfer complete.\r\n";
+    private static final String MULTI_LINE = "211-Features:\r\n MDTM\r\n REST STREAM\r\n SIZE\r\n"
+            + " MLST type*;size*;modify*;perm*;UNIX.mode*;\r\n UTF8\r\n EPSV\r\n211 End\r\n";
+
+    @Param({"single", "multi"})
+    public String reply;
+
+    private byte[] stream;
+
+    @Setup
+    public void prepare() {
+        byte[] bytes = ("single".equals(reply) ? SINGLE_LINE : MULTI_LINE).getBytes(StandardCharsets.UTF_8);
+        stream = new byte[bytes.length * REPLY_NUM];
+        for (int i = 0; i < REPLY_NUM; i++)
+            System.arraycopy(bytes, 0, stream, i * bytes.length, bytes.length);
+    }
+
+    /**
+     * Status code only, as most commands need.
+     */
+    @Benchmark
+    @OperationsPerInvocation(REPLY_NUM)
+    public void statusCode(Blackhole blackhole) throws IOException {
+        ReplyParser parser = new ReplyParser();
+        for (int offset = 0; offset < stream.length; ) {
+            offset += parser.feed(stream, offset, stream.length - offset);
+            blackhole.consume(parser.getStatusCode());
+        }
+    }
+
+    /**
+     * Status code and text, as every reply cost before.
+     */
+    @Benchmark
+    @OperationsPerInvocation(REPLY_NUM)
+    public void message(Blackhole blackhole) throws IOException {
+        ReplyParser parser = new ReplyParser();
+        for (int offset = 0; offset < stream.length; ) {
+            offset += parser.feed(stream, offset, stream.length - offset);
+            blackhole.consume(parser.getStatusCode());
+            blackhole.consume(parser.getMessage());
+        }
+    }
+
+    /**
+     * Former ControlSocket#parseResponse: readLine, substring and
+     * parseInt, text built by StringBuilder.
+     */
+    @Benchmark
+    @OperationsPerInvocation(REPLY_NUM)
+    public void readLine(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(stream), StandardCharsets.UTF_8));
+        for (int i = 0; i < REPLY_NUM; i++) {
+            StringBuilder messageBuilder = new StringBuilder();
+            String ret = reader.readLine();
+            messageBuilder.append(ret).append('\n');
+            int statusCode = Integer.parseInt(ret.substring(0, 3));
+            if (ret.charAt(3) == '-')
+                do {
+                    ret = reader.readLine();
+                    messageBuilder.append(ret).append('\n');
+                } while (!ret.startsWith(statusCode + " "));
+            blackhole.consume(statusCode);
+            blackhole.consume(messageBuilder.toString());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ftp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplyParserTest {
+    private static final String SINGLE_LINE = "226 Transfer complete.\r\n";
+    private static final String MULTI_LINE = "211-Features:\r\n MDTM\r\n REST STREAM\r\n SIZE\r\n"
+            + " MLST type*;size*;modify*;perm*;UNIX.mode*;\r\n UTF8\r\n EPSV\r\n211 End\r\n";
+    /** continuation lines may start with digits, even another code */
+    private static final String MULTI_LINE_NUMBERED = "214-The following commands are recognized:\r\n"
+            + "214-ABOR ACCT ALLO APPE CDUP CWD\r\n 214 is not the end yet\r\n200 nor this\r\n"
+            + "214\r\n214 Help OK.\r\n";
+
+    @Test
+    void singleLineSplitAtEveryByte() throws ProtocolException {
+        checkSplits(SINGLE_LINE);
+    }
+
+    @Test
+    void multiLineSplitAtEveryByte() throws ProtocolException {
+        checkSplits(MULTI_LINE);
+        checkSplits(MULTI_LINE_NUMBERED);
+    }
+
+    @Test
+    void feedStopsAtEndOfReply() throws ProtocolException {
+        byte[] bytes = (SINGLE_LINE + "200 NOOP ok\r\n").getBytes(StandardCharsets.UTF_8);
+        ReplyParser parser = new ReplyParser();
+        assertEquals(SINGLE_LINE.length(), parser.feed(bytes, 0, bytes.length));
+        assertTrue(parser.isComplete());
+        assertEquals(226, parser.getStatusCode());
+        assertEquals("226 Transfer complete.\n", parser.getMessage());
+
+        int offset = SINGLE_LINE.length();
+        assertEquals(bytes.length - offset, parser.feed(bytes, offset, bytes.length - offset));
+        assertEquals(200, parser.getStatusCode());
+        assertEquals("200 NOOP ok\n", parser.getMessage());
+    }
+
+    @Test
+    void incompleteReplyIsNotComplete() throws ProtocolException {
+        byte[] bytes = "150-Opening\r\n150".getBytes(StandardCharsets.UTF_8);
+        ReplyParser parser = new ReplyParser();
+        assertEquals(bytes.length, parser.feed(bytes, 0, bytes.length));
+        assertFalse(parser.isComplete());
+    }
+
+    @Test
+    void malformedReply() {
+        byte[] bytes = "hello\r\n".getBytes(StandardCharsets.UTF_8);
+        assertThrows(ProtocolException.class, () -> new ReplyParser().feed(bytes, 0, bytes.length));
+    }
+
+    /**
+     * Feed {@code sample} twice in a row, split in two chunks at every
+     * byte boundary, to both feed methods. Each must give the two replies
+     * with the code and text of {@code sample}, "\r\n" turned into "\n".
+     */
+    private static void checkSplits(String sample) throws ProtocolException {
+        byte[] bytes = (sample + sample).getBytes(StandardCharsets.UTF_8);
+        int expectedCode = Integer.parseInt(sample.substring(0, 3));
+        String expectedMessage = sample.replace("\r\n", "\n");
+        for (int split = 0; split <= bytes.length; split++) {
+            List<Reply> replies = new ArrayList<>();
+            ReplyParser parser = new ReplyParser();
+            feedArray(parser, bytes, 0, split, replies);
+            feedArray(parser, bytes, split, bytes.length, replies);
+            check(replies, expectedCode, expectedMessage, "byte[] split at " + split);
+
+            List<Reply> bufferedReplies = new ArrayList<>();
+            parser = new ReplyParser();
+            parser.feed(ByteBuffer.wrap(bytes, 0, split), bufferedReplies::add);
+            parser.feed(ByteBuffer.wrap(bytes, split, bytes.length - split), bufferedReplies::add);
+            check(bufferedReplies, expectedCode, expectedMessage, "ByteBuffer split at " + split);
+        }
+    }
+
+    private static void feedArray(ReplyParser parser, byte[] bytes, int from, int to, List<Reply> replies)
+            throws ProtocolException {
+        while (from < to) {
+            int consumed = parser.feed(bytes, from, to - from);
+            assertTrue(consumed == to - from || parser.isComplete(),
+                    "stopped before the end of an incomplete reply");
+            from += consumed;
+            if (parser.isComplete())
+                replies.add(new Reply(parser.getStatusCode(),
+                        parser.getMessage().getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static void check(List<Reply> replies, int expectedCode, String expectedMessage, String what) {
+        assertEquals(2, replies.size(), what);
+        for (Reply reply : replies) {
+            assertEquals(expectedCode, reply.getStatusCode(), what);
+            assertEquals(expectedMessage, reply.getMessage(), what);
+        }
+    }
+}
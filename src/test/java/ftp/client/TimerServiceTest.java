@@ -0,0 +1,85 @@
+package ftp.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerServiceTest {
+    private static final long TICK = 10;
+    private TimerService timer;
+
+    @BeforeEach
+    void startTimer() {
+        // 8 buckets of 10ms, so that longer delays take more than one round of the wheel
+        timer = new TimerService(TICK, 8, 2);
+    }
+
+    @AfterEach
+    void stopTimer() throws InterruptedException {
+        timer.shutdownNow();
+        assertTrue(timer.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void expiresNotBeforeDelay() throws InterruptedException {
+        for (long delay : new long[]{0, 35, 250}) {
+            CountDownLatch fired = new CountDownLatch(1);
+            long start = System.nanoTime();
+            timer.schedule(fired::countDown, delay);
+            assertTrue(fired.await(5, TimeUnit.SECONDS), "never fired after " + delay + "ms");
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsed >= delay - TICK, "fired after " + elapsed + "ms, not " + delay + "ms");
+        }
+    }
+
+    @Test
+    void cancelledNeverFires() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        timer.schedule(runs::incrementAndGet, 50).cancel();
+        timer.schedule(runs::incrementAndGet, 200).cancel();
+        CountDownLatch later = new CountDownLatch(1);
+        timer.schedule(later::countDown, 300);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void fixedDelayRepeatsUntilCancelled() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch thrice = new CountDownLatch(3);
+        TimerService.Timeout timeout = timer.scheduleWithFixedDelay(() -> {
+            runs.incrementAndGet();
+            thrice.countDown();
+            throw new IllegalStateException("a failed run must not stop later ones");
+        }, 0, 20);
+        assertTrue(thrice.await(5, TimeUnit.SECONDS));
+        assertTrue(timeout.cancel(1, TimeUnit.SECONDS));
+        int cancelledAt = runs.get();
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(cancelledAt, runs.get());
+    }
+
+    @Test
+    void cancelWaitsForRunningTask() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TimerService.Timeout timeout = timer.schedule(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel(50, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(timeout.cancel(5, TimeUnit.SECONDS));
+    }
+}